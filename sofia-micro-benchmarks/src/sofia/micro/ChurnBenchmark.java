@@ -0,0 +1,123 @@
+package sofia.micro;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+//-------------------------------------------------------------------------
+/**
+ * Measures the cost of adding and removing actors, following the pattern
+ * of a Jeroo that plants a flower in its cell and later picks it: an
+ * actor is added at a location, found again by a query at that location,
+ * and removed.  Adds and removes only reach the act list when it is
+ * committed at the next step, so every so often a step is run to commit
+ * them, as the engine would.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChurnBenchmark
+{
+    //~ Fields ................................................................
+
+    /** The number of other actors already in the world. */
+    @Param({"0", "1000"})
+    public int population;
+
+    private World world;
+    private int x = 0;
+    private int y = 0;
+    private int count = 0;
+
+    private static final int SIZE = 50;
+    private static final int OPERATIONS_PER_STEP = 64;
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a headless world with the given population.
+     */
+    @Setup
+    public void setUp()
+    {
+        world = new World(SIZE, SIZE, 1);
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < population; i++)
+        {
+            world.add(new Actor(false),
+                random.nextInt(SIZE), random.nextInt(SIZE));
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Release the world.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        world.dispose();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Plant an actor in the next cell, then pick it again.
+     * @return The actor that was picked.
+     */
+    @Benchmark
+    public Object plantAndPick()
+    {
+        world.add(new Flower(), x, y);
+        Flower flower = world.getOneObjectAt(x, y, Flower.class);
+        world.remove(flower);
+
+        x++;
+        if (x == SIZE)
+        {
+            x = 0;
+            y = (y + 1) % SIZE;
+        }
+        count++;
+        if (count == OPERATIONS_PER_STEP)
+        {
+            count = 0;
+            world.stepNow();
+        }
+        return flower;
+    }
+
+
+    //~ Nested Classes ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * A stand-in for a Jeroo flower, which needs no image.
+     */
+    public static class Flower
+        extends Actor
+    {
+        // ----------------------------------------------------------
+        /**
+         * Create a new flower.
+         */
+        public Flower()
+        {
+            super(false);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package sofia.micro;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import sofia.graphics.Color;
+
+//-------------------------------------------------------------------------
+/**
+ * Measures the cost of drawing a world's background (its color and grid
+ * lines) as the grid grows.  The world is headless, so it has no cell
+ * size to cache a pre-rendered background at, and the background is
+ * rendered in full on every call--which is the cost the background cache
+ * saves a world that is attached to a view.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DrawBenchmark
+{
+    //~ Fields ................................................................
+
+    /** The width and height of the world, in cells. */
+    @Param({"8", "20", "50", "100"})
+    public int size;
+
+    private World world;
+    private Bitmap bitmap;
+    private Canvas canvas;
+
+    private static final int PIXELS = 800;
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a world with a background color and grid lines, and a canvas
+     * to draw it on.
+     */
+    @Setup
+    public void setUp()
+    {
+        world = new World(size, size, 1);
+        world.setWorldBackground((sofia.graphics.Image)null);
+        world.setBackgroundColor(Color.white);
+        world.setGridColor(Color.gray);
+
+        bitmap = Bitmap.createBitmap(PIXELS, PIXELS, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(bitmap);
+        float scale = PIXELS / (float)size;
+        canvas.scale(scale, scale);
+        canvas.translate(0.5f, 0.5f);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Release the world and the bitmap.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        world.dispose();
+        bitmap.recycle();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Draw the world's background.
+     */
+    @Benchmark
+    public void draw()
+    {
+        world.draw(canvas);
+    }
+}
@@ -0,0 +1,95 @@
+package sofia.micro;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import sofia.micro.internal.ProgramThread;
+
+//-------------------------------------------------------------------------
+/**
+ * Measures the latency of handing control to a program for one atomic
+ * action and back again, which is what every step pays for each
+ * programmable actor.  The program's actions do nothing, so the time
+ * measured is all handoff.  This benchmark only uses
+ * {@link ProgramThread}, and does not need an Android runtime.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HandoffBenchmark
+{
+    //~ Fields ................................................................
+
+    /**
+     * How the program runs: on a platform thread, on a virtual thread, or
+     * threadless (where the JVM supports them; see {@link ProgramThread}).
+     */
+    @Param({"platform", "virtual", "threadless"})
+    public String kind;
+
+    private ProgramThread thread;
+
+    private static final long TIMEOUT = 1000000000L;  // nanoseconds
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Start a program that performs empty atomic actions forever.
+     */
+    @Setup
+    public void setUp()
+    {
+        thread = new ProgramThread("Program[HandoffBenchmark]",
+            new Program() {
+                public void myProgram()
+                {
+                    while (true)
+                    {
+                        ProgramThread.beginAtomicAction();
+                        ProgramThread.endAtomicAction();
+                    }
+                }
+            },
+            "threadless".equals(kind) ? ProgramThread.THREADLESS
+                : "virtual".equals(kind) ? ProgramThread.VIRTUAL
+                : ProgramThread.PLATFORM,
+            0);
+        thread.start();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * End the program.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        thread.endProgram();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Resume the program and wait for its next action to finish.
+     * @return True if the action finished in time.
+     */
+    @Benchmark
+    public boolean resumeAndWait()
+    {
+        return thread.resumeProgramAndWait(TIMEOUT);
+    }
+}
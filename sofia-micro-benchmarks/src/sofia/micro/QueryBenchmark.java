@@ -0,0 +1,130 @@
+package sofia.micro;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+//-------------------------------------------------------------------------
+/**
+ * Measures the latency of the world's location queries as the world
+ * becomes more crowded.  Each query is made at a different cell, cycling
+ * through a fixed, random sequence of cells, so the results do not depend
+ * on any one cell's contents.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QueryBenchmark
+{
+    //~ Fields ................................................................
+
+    /** The average number of actors per cell. */
+    @Param({"0.1", "1", "4"})
+    public double density;
+
+    private World world;
+    private Actor[] probes;
+    private int next = 0;
+
+    private static final int SIZE = 50;
+    private static final int PROBES = 1024;
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a headless world with the given density of actors, and pick
+     * the actors to query around.
+     */
+    @Setup
+    public void setUp()
+    {
+        world = new World(SIZE, SIZE, 1);
+        java.util.Random random = new java.util.Random(42);
+        int count = Math.max(1, (int)(density * SIZE * SIZE));
+        Actor[] all = new Actor[count];
+        for (int i = 0; i < count; i++)
+        {
+            all[i] = new Actor(false);
+            world.add(all[i], random.nextInt(SIZE), random.nextInt(SIZE));
+        }
+        probes = new Actor[PROBES];
+        for (int i = 0; i < PROBES; i++)
+        {
+            probes[i] = all[random.nextInt(count)];
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Release the world.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        world.dispose();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Find the actors in a single cell.
+     * @return The actors found.
+     */
+    @Benchmark
+    public Object getObjectsAt()
+    {
+        Actor probe = nextProbe();
+        return world.getObjectsAt(
+            probe.getGridX(), probe.getGridY(), Actor.class);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Find the neighbors of an actor, including diagonals.
+     * @return The actors found.
+     */
+    @Benchmark
+    public Object getNeighbors()
+    {
+        return world.getNeighbors(nextProbe(), 1, true, Actor.class);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Find the actors within a radius of two cells.
+     * @return The actors found.
+     */
+    @Benchmark
+    public Object getObjectsInRange()
+    {
+        Actor probe = nextProbe();
+        return world.getObjectsInRange(
+            probe.getGridX(), probe.getGridY(), 2, Actor.class);
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    private Actor nextProbe()
+    {
+        next = (next + 1) & (PROBES - 1);
+        return probes[next];
+    }
+}
@@ -0,0 +1,128 @@
+package sofia.micro;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+//-------------------------------------------------------------------------
+/**
+ * Measures the throughput of a world's step (acting for the world and
+ * all of its actors, and merging the act list) as the number of actors
+ * grows.  Every actor moves one cell per step, so the cell index is
+ * updated on every act.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StepBenchmark
+{
+    //~ Fields ................................................................
+
+    @Param({"10", "100", "1000", "10000"})
+    public int actors;
+
+    private World world;
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a headless world filled with wandering actors.
+     */
+    @Setup
+    public void setUp()
+    {
+        world = new World(100, 100, 1);
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < actors; i++)
+        {
+            world.add(new Wanderer(random.nextInt(4)),
+                random.nextInt(world.getWidth()),
+                random.nextInt(world.getHeight()));
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Release the world.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        world.dispose();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Run one step.
+     */
+    @Benchmark
+    public void step()
+    {
+        world.stepNow();
+    }
+
+
+    //~ Nested Classes ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * An actor that moves one cell per step in a fixed direction,
+     * bouncing off the edges of the world.
+     */
+    public static class Wanderer
+        extends Actor
+    {
+        private int dx;
+        private int dy;
+
+
+        // ----------------------------------------------------------
+        /**
+         * Create a new wanderer.
+         * @param direction Which way to start out: 0 to 3, for east,
+         *                  south, west, and north.
+         */
+        public Wanderer(int direction)
+        {
+            super(false);
+            dx = (direction == 0) ? 1 : ((direction == 2) ? -1 : 0);
+            dy = (direction == 1) ? 1 : ((direction == 3) ? -1 : 0);
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public void act()
+        {
+            World world = getWorld();
+            int x = getGridX() + dx;
+            int y = getGridY() + dy;
+            if (x < 0 || x >= world.getWidth())
+            {
+                dx = -dx;
+                x += 2 * dx;
+            }
+            if (y < 0 || y >= world.getHeight())
+            {
+                dy = -dy;
+                y += 2 * dy;
+            }
+            setGridLocation(x, y);
+        }
+    }
+}
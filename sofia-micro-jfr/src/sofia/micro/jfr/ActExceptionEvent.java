@@ -0,0 +1,38 @@
+package sofia.micro.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//-------------------------------------------------------------------------
+/**
+ * An exception thrown by an act() method was caught and logged by a
+ * world.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+@Name("sofia.micro.ActException")
+@Label("Act Exception")
+@Category({"Sofia", "Micro World"})
+@Description(
+    "An exception thrown by an act() method was caught and logged "
+    + "by a world.")
+class ActExceptionEvent
+    extends Event
+{
+    @Label("Source Class")
+    Class<?> source;
+
+    @Label("Method")
+    String method;
+
+    @Label("Exception Class")
+    Class<?> exception;
+
+    @Label("Message")
+    String message;
+}
@@ -0,0 +1,35 @@
+package sofia.micro.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//-------------------------------------------------------------------------
+/**
+ * A world merged the actors added since its last commit into its act
+ * list, and dropped the ones removed.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+@Name("sofia.micro.ActListCommit")
+@Label("Act List Commit")
+@Category({"Sofia", "Micro World"})
+@Description(
+    "A world merged the actors added since its last commit into "
+    + "its act list, and dropped the ones removed.")
+class CommitEvent
+    extends Event
+{
+    @Label("World Class")
+    Class<?> world;
+
+    @Label("Adds")
+    int adds;
+
+    @Label("Removes")
+    int removes;
+}
@@ -0,0 +1,195 @@
+package sofia.micro.jfr;
+
+import jdk.jfr.EventType;
+import sofia.micro.internal.EngineEvents;
+import sofia.micro.internal.ProgramThread;
+
+//-------------------------------------------------------------------------
+/**
+ * Records what worlds' engines and programs are doing as Java Flight
+ * Recorder events.  This class is found and used automatically by
+ * {@link EngineEvents#get()} whenever it is on the class path.  Each
+ * event is only created while a recording that enables it is running,
+ * so at other times the cost is a check of whether the event type is
+ * enabled.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public class FlightRecorderEvents
+    extends EngineEvents
+{
+    //~ Fields ................................................................
+
+    private final EventType stepType =
+        EventType.getEventType(StepEvent.class);
+    private final EventType pauseType =
+        EventType.getEventType(ProgramPauseEvent.class);
+    private final EventType waitType =
+        EventType.getEventType(ProgramWaitEvent.class);
+    private final EventType commitType =
+        EventType.getEventType(CommitEvent.class);
+
+
+    //~ Constructor ...........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new recorder.
+     */
+    public FlightRecorderEvents()
+    {
+        super();
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    @Override
+    public Object beginStep()
+    {
+        if (!stepType.isEnabled())
+        {
+            return null;
+        }
+        StepEvent event = new StepEvent();
+        event.begin();
+        return event;
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public void endStep(
+        Object token, Object world, long stepIndex, int actorCount)
+    {
+        if (token != null)
+        {
+            StepEvent event = (StepEvent)token;
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.world = world.getClass();
+                event.stepIndex = stepIndex;
+                event.actorCount = actorCount;
+                event.commit();
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public Object beginProgramPause()
+    {
+        if (!pauseType.isEnabled())
+        {
+            return null;
+        }
+        ProgramPauseEvent event = new ProgramPauseEvent();
+        event.begin();
+        return event;
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public void endProgramPause(Object token, ProgramThread program)
+    {
+        if (token != null)
+        {
+            ProgramPauseEvent event = (ProgramPauseEvent)token;
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.program = program.getProgram().getClass();
+                event.commit();
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public Object beginProgramWait()
+    {
+        if (!waitType.isEnabled())
+        {
+            return null;
+        }
+        ProgramWaitEvent event = new ProgramWaitEvent();
+        event.begin();
+        return event;
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public void endProgramWait(
+        Object token, ProgramThread program, boolean completed)
+    {
+        if (token != null)
+        {
+            ProgramWaitEvent event = (ProgramWaitEvent)token;
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.programThread = program.getThread();
+                event.program = program.getProgram().getClass();
+                event.completed = completed;
+                event.commit();
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public Object beginCommit()
+    {
+        if (!commitType.isEnabled())
+        {
+            return null;
+        }
+        CommitEvent event = new CommitEvent();
+        event.begin();
+        return event;
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public void endCommit(Object token, Object world, int adds, int removes)
+    {
+        if (token != null)
+        {
+            CommitEvent event = (CommitEvent)token;
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.world = world.getClass();
+                event.adds = adds;
+                event.removes = removes;
+                event.commit();
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public void caughtException(Object source, String method, Throwable error)
+    {
+        ActExceptionEvent event = new ActExceptionEvent();
+        if (event.shouldCommit())
+        {
+            event.source = source.getClass();
+            event.method = method;
+            event.exception = error.getClass();
+            event.message = error.getMessage();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package sofia.micro.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//-------------------------------------------------------------------------
+/**
+ * A program paused between atomic actions, waiting to be resumed by its
+ * world.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+@Name("sofia.micro.ProgramPause")
+@Label("Program Pause")
+@Category({"Sofia", "Micro World"})
+@Description(
+    "A program paused between atomic actions, waiting to be "
+    + "resumed by its world.")
+class ProgramPauseEvent
+    extends Event
+{
+    @Label("Program Class")
+    Class<?> program;
+}
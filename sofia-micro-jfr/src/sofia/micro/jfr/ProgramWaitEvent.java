@@ -0,0 +1,36 @@
+package sofia.micro.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//-------------------------------------------------------------------------
+/**
+ * A thread resumed a program and waited for its next atomic action to
+ * finish.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+@Name("sofia.micro.ProgramWait")
+@Label("Program Wait")
+@Category({"Sofia", "Micro World"})
+@Description(
+    "A thread resumed a program and waited for its next atomic "
+    + "action to finish.")
+class ProgramWaitEvent
+    extends Event
+{
+    @Label("Program Thread")
+    Thread programThread;
+
+    @Label("Program Class")
+    Class<?> program;
+
+    @Label("Completed")
+    @Description("False if the wait timed out before the action finished")
+    boolean completed;
+}
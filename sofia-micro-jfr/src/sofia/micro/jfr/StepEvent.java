@@ -0,0 +1,37 @@
+package sofia.micro.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//-------------------------------------------------------------------------
+/**
+ * One step of a world's engine, from the view's act() through the
+ * repaint request.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+@Name("sofia.micro.Step")
+@Label("World Step")
+@Category({"Sofia", "Micro World"})
+@Description(
+    "One step of a world's engine, from the view's act() through "
+    + "the repaint request.")
+class StepEvent
+    extends Event
+{
+    @Label("World Class")
+    Class<?> world;
+
+    @Label("Step Index")
+    @Description("The number of steps the world had taken before this one")
+    long stepIndex;
+
+    @Label("Actor Count")
+    @Description("The number of actors in the act list")
+    int actorCount;
+}
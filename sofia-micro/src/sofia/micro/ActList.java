@@ -0,0 +1,397 @@
+package sofia.micro;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+
+//-------------------------------------------------------------------------
+/**
+ * The list of actors that act in each step of a {@link World}, kept in a
+ * plain array sorted by act order, so that a step is a simple scan from
+ * start to end.
+ *
+ * <p>Adds and removes can come from any thread (such as the program
+ * threads of programmable actors), so they are simply placed on a
+ * lock-free queue, in order.  The engine thread drains the queue once per
+ * step in {@link #commit()}: removing an actor clears its slot, leaving a
+ * tombstone (a null entry), and then all tombstones are dropped and the
+ * newly added actors are sorted and merged into place in a single pass.
+ * Actors are ordered by an integer rank (from a {@link Ranking}), then by
+ * z-index, and then by the order they were added to the world.  Each
+ * actor's rank is computed once, when it is merged in, and stored on the
+ * actor, so sorting never has to look up class ranks.  Changing the
+ * ranking re-ranks every actor in one pass, followed by one bulk sort, at
+ * the next commit.  Each actor remembers its own slot (and the list that
+ * slot is in), so none of these operations needs to search the list or
+ * compare the actors already in it.  The one exception is an actor that
+ * moves to another world before this list has committed its removal:
+ * the other world's list may have claimed it by then, so this list finds
+ * the actor's slot by searching.</p>
+ *
+ * <p>Apart from {@link #add(Actor)}, {@link #remove(Actor)}, and
+ * {@link #setOrder(Ranking)}, which are thread-safe, this class must
+ * only be used from the world's engine thread.  Since removals only take
+ * effect at the next commit, the world also checks that each actor is
+ * still in the world before it acts.</p>
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+class ActList
+{
+    //~ Fields ................................................................
+
+    private Actor[] slots;
+    private int size;
+    private int tombstones;
+    private final List<Actor> pending;
+    private final Queue<Change> changes;
+    private volatile Ranking ranking;
+    private volatile boolean needsSort;
+    private int lastAdds;
+    private int lastRemoves;
+
+    /** The act index of an actor that is waiting to be merged in. */
+    static final int PENDING = -2;
+
+    /** The act index of an actor that is not in an act list. */
+    static final int NONE = -1;
+
+    /**
+     * Orders actors by their stored rank, then by z-index, and then by
+     * the order in which they were added to the world.
+     */
+    private static final Comparator<Actor> ORDER = new Comparator<Actor>() {
+        // ----------------------------------------------------------
+        public int compare(Actor actor1, Actor actor2)
+        {
+            int rank1 = actor1.getActRank();
+            int rank2 = actor2.getActRank();
+            if (rank1 != rank2)
+            {
+                return rank1 < rank2 ? -1 : 1;
+            }
+            int z1 = actor1.getZIndex();
+            int z2 = actor2.getZIndex();
+            if (z1 != z2)
+            {
+                return z1 < z2 ? -1 : 1;
+            }
+            long seq1 = actor1.getWorldSequence();
+            long seq2 = actor2.getWorldSequence();
+            return (seq1 < seq2) ? -1 : ((seq1 == seq2) ? 0 : 1);
+        }
+    };
+
+
+    //~ Constructor ...........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new, empty act list.
+     * @param ranking The ranking that determines act order.
+     */
+    ActList(Ranking ranking)
+    {
+        slots = new Actor[16];
+        pending = new java.util.ArrayList<Actor>();
+        changes = new java.util.concurrent.ConcurrentLinkedQueue<Change>();
+        this.ranking = ranking;
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of slots in this list, including tombstones.
+     * @return The number of slots to scan.
+     */
+    int size()
+    {
+        return size;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the actor in a given slot.
+     * @param index The slot to look at.
+     * @return The actor in that slot, or null if it has been removed.
+     */
+    Actor get(int index)
+    {
+        return slots[index];
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Add an actor to this list.  It will take its place in act order
+     * (and begin being scanned) at the next {@link #commit()}.  This
+     * method is thread-safe.
+     * @param actor The actor to add.
+     */
+    void add(Actor actor)
+    {
+        changes.add(new Change(actor, true));
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Remove an actor from this list.  Its slot will be cleared at the
+     * next {@link #commit()}.  This method is thread-safe.
+     * @param actor The actor to remove.
+     */
+    void remove(Actor actor)
+    {
+        changes.add(new Change(actor, false));
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Change the act order.  All actors will be re-ranked and the list
+     * re-sorted at the next {@link #commit()}.  This method is
+     * thread-safe.
+     * @param newRanking The ranking that determines the new act order.
+     */
+    void setOrder(Ranking newRanking)
+    {
+        ranking = newRanking;
+        needsSort = true;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of actors merged in by the last {@link #commit()}.
+     * @return The number of actors added.
+     */
+    int getLastAdds()
+    {
+        return lastAdds;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of actors dropped by the last {@link #commit()}.
+     * @return The number of actors removed.
+     */
+    int getLastRemoves()
+    {
+        return lastRemoves;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Bring the list up to date: apply queued adds and removes in the
+     * order they were made, drop tombstones, re-sort if the order has
+     * changed, and merge in the added actors.  This does nothing if there
+     * have been no changes.
+     */
+    void commit()
+    {
+        lastAdds = 0;
+        lastRemoves = 0;
+        Change change;
+        while ((change = changes.poll()) != null)
+        {
+            Actor actor = change.actor;
+            int index = slotOf(actor);
+            if (change.isAdd)
+            {
+                if (index == NONE)
+                {
+                    actor.setActIndex(this, PENDING);
+                    pending.add(actor);
+                }
+            }
+            else
+            {
+                if (index == NONE)
+                {
+                    index = search(actor);
+                }
+                if (index >= 0)
+                {
+                    slots[index] = null;
+                    tombstones++;
+                    lastRemoves++;
+                }
+                else if (index == PENDING)
+                {
+                    pending.remove(actor);
+                }
+                if (actor.getActList() == this)
+                {
+                    actor.setActIndex(null, NONE);
+                }
+            }
+        }
+
+        if (tombstones == 0 && pending.isEmpty() && !needsSort)
+        {
+            return;
+        }
+
+        // Drop tombstones
+        int live = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (slots[i] != null)
+            {
+                slots[live++] = slots[i];
+            }
+        }
+
+        Ranking ranking = this.ranking;
+        if (needsSort)
+        {
+            needsSort = false;
+            for (int i = 0; i < live; i++)
+            {
+                slots[i].setActRank(ranking.rankOf(slots[i]));
+            }
+            java.util.Arrays.sort(slots, 0, live, ORDER);
+        }
+
+        int newSize = live + pending.size();
+        Actor[] target = slots;
+        if (newSize > slots.length)
+        {
+            target = new Actor[Math.max(newSize, slots.length * 2)];
+        }
+
+        if (!pending.isEmpty())
+        {
+            Actor[] added = pending.toArray(new Actor[pending.size()]);
+            pending.clear();
+            lastAdds = added.length;
+            for (Actor actor : added)
+            {
+                actor.setActRank(ranking.rankOf(actor));
+            }
+            java.util.Arrays.sort(added, ORDER);
+
+            // Merge from the back, so the merge can happen in place
+            int from = live - 1;
+            int next = added.length - 1;
+            for (int to = newSize - 1; to >= 0; to--)
+            {
+                if (next < 0 || (from >= 0
+                    && ORDER.compare(slots[from], added[next]) > 0))
+                {
+                    target[to] = slots[from--];
+                }
+                else
+                {
+                    target[to] = added[next--];
+                }
+            }
+        }
+        else if (target != slots)
+        {
+            System.arraycopy(slots, 0, target, 0, live);
+        }
+
+        // Clear any slots beyond the end, so removed actors can be freed
+        for (int i = newSize; i < size; i++)
+        {
+            target[i] = null;
+        }
+
+        slots = target;
+        size = newSize;
+        tombstones = 0;
+        for (int i = 0; i < size; i++)
+        {
+            slots[i].setActIndex(this, i);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get an actor's slot in this list, as the actor remembers it.
+     * @param actor The actor to look up.
+     * @return The actor's slot, {@link #PENDING} if it is waiting to be
+     *         merged in, or {@link #NONE} if it is not in this list as far
+     *         as it knows.
+     */
+    private int slotOf(Actor actor)
+    {
+        if (actor.getActList() == this)
+        {
+            int index = actor.getActIndex();
+            if (index == PENDING
+                || (index >= 0 && index < size && slots[index] == actor))
+            {
+                return index;
+            }
+        }
+        return NONE;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Find an actor in this list without relying on the slot it
+     * remembers, which may belong to another world's list if the actor
+     * has moved between worlds since this list last committed.
+     * @param actor The actor to look for.
+     * @return The actor's slot, {@link #PENDING} if it is waiting to be
+     *         merged in, or {@link #NONE} if it is not in this list.
+     */
+    private int search(Actor actor)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            if (slots[i] == actor)
+            {
+                return i;
+            }
+        }
+        return pending.contains(actor) ? PENDING : NONE;
+    }
+
+
+    //~ Nested Types ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Assigns each actor its rank in act order.  Actors with lower ranks
+     * act first.
+     */
+    interface Ranking
+    {
+        // ----------------------------------------------------------
+        /**
+         * Get the rank of an actor.
+         * @param actor The actor to rank.
+         * @return The actor's rank.
+         */
+        int rankOf(Actor actor);
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * A queued add or remove.
+     */
+    private static class Change
+    {
+        final Actor actor;
+        final boolean isAdd;
+
+        // ----------------------------------------------------------
+        Change(Actor actor, boolean isAdd)
+        {
+            this.actor = actor;
+            this.isAdd = isAdd;
+        }
+    }
+}
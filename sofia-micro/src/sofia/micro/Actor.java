@@ -39,6 +39,11 @@ public class Actor
     private String nickName;
     private boolean scaleToCell;
     private boolean centerAnchorAfterScale = true;
+    private long worldSequence;
+    private ActList actList;
+    private int actIndex = ActList.NONE;
+    private int actRank;
+    private int paintRank;
 
     /** Error message to display when trying to use methods that requires
      * the actor be in a world.
@@ -274,11 +279,13 @@ public class Actor
      */
     public void setImage(Shape image)
     {
+        notifyWorldOfMoveStart();
         setDelegate(image);
         if (world != null)
         {
             scaleImageForWorldIfNecessary();
         }
+        notifyWorldOfMove();
     }
 
 
@@ -480,7 +487,9 @@ public class Actor
         {
             x = limit(x, world.getWidth());
         }
+        notifyWorldOfMoveStart();
         super.setX(x);
+        notifyWorldOfMove();
     }
 
 
@@ -527,7 +536,9 @@ public class Actor
         {
             y = limit(y, world.getHeight());
         }
+        notifyWorldOfMoveStart();
         super.setY(y);
+        notifyWorldOfMove();
     }
 
 
@@ -564,7 +575,9 @@ public class Actor
             position.x = limit(position.x, world.getWidth());
             position.y = limit(position.y, world.getHeight());
         }
+        notifyWorldOfMoveStart();
         super.setPosition(position);
+        notifyWorldOfMove();
     }
 
 
@@ -575,9 +588,11 @@ public class Actor
     @Override
     public void setPosition(PointAndAnchor pointAndAnchor)
     {
+        notifyWorldOfMoveStart();
         super.setPosition(pointAndAnchor);
         // Force limit checking
         setPosition(getPosition());
+        notifyWorldOfMove();
     }
 
 
@@ -593,7 +608,22 @@ public class Actor
      */
     public void setRotation(double angleInDegrees)
     {
+        notifyWorldOfMoveStart();
         super.setRotation((float)angleInDegrees);
+        notifyWorldOfMove();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void move(float dx, float dy)
+    {
+        notifyWorldOfMoveStart();
+        super.move(dx, dy);
+        notifyWorldOfMove();
     }
 
 
@@ -605,9 +635,11 @@ public class Actor
     public void setBounds(RectF newBounds)
     {
         scaleToCell = false;
+        notifyWorldOfMoveStart();
         super.setBounds(newBounds);
         // Force limit checking
         setPosition(getPosition());
+        notifyWorldOfMove();
     }
 
 
@@ -619,9 +651,11 @@ public class Actor
     public void setPositionAnchor(Anchor anchor)
     {
         centerAnchorAfterScale = false;
+        notifyWorldOfMoveStart();
         super.setPositionAnchor(anchor);
         // Force limit checking
         setPosition(getPosition());
+        notifyWorldOfMove();
     }
 
 
@@ -633,9 +667,11 @@ public class Actor
     public void setPositionAnchor(PointF anchor)
     {
         centerAnchorAfterScale = false;
+        notifyWorldOfMoveStart();
         super.setPositionAnchor(anchor);
         // Force limit checking
         setPosition(getPosition());
+        notifyWorldOfMove();
     }
 
 
@@ -721,9 +757,103 @@ public class Actor
 
 
     // ----------------------------------------------------------
-    private void scaleImageForWorldIfNecessary()
+    /**
+     * Get the sequence number this actor was given when it was added to
+     * its world, which is used to order actors that are otherwise equal.
+     * @return The sequence number assigned by the world.
+     */
+    /* package */ long getWorldSequence()
+    {
+        return worldSequence;
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ void setWorldSequence(long sequence)
     {
-        if (world == null)
+        worldSequence = sequence;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the {@link ActList} that this actor's act index refers to.
+     * @return The act list, or null if the actor is not in one.
+     */
+    /* package */ ActList getActList()
+    {
+        return actList;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get this actor's slot in its {@link #getActList() act list}.
+     * @return The slot, or one of the negative values defined by ActList
+     *         if the actor is not (yet) in a slot.
+     */
+    /* package */ int getActIndex()
+    {
+        return actIndex;
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ void setActIndex(ActList list, int index)
+    {
+        actList = list;
+        actIndex = index;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the rank of this actor's class in its world's act order, as
+     * last computed by the world.
+     * @return The act-order rank.
+     */
+    /* package */ int getActRank()
+    {
+        return actRank;
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ void setActRank(int rank)
+    {
+        actRank = rank;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the rank of this actor's class in its world's paint order, as
+     * last computed by the world.
+     * @return The paint-order rank.
+     */
+    /* package */ int getPaintRank()
+    {
+        return paintRank;
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ void setPaintRank(int rank)
+    {
+        paintRank = rank;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Rescale this actor's image to fit its world's grid.  This does
+     * nothing for an actor in a headless world (one that has no view),
+     * since image sizes cannot be resolved without a view; the world calls
+     * this again when it is attached to a view.
+     */
+    /* package */ void scaleImageForWorldIfNecessary()
+    {
+        if (world == null || world.getWorldView() == null)
         {
             return;
         }
@@ -795,6 +925,36 @@ public class Actor
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Lets this actor's world know that its location, extent, or image
+     * is about to change, so the world can remember where it was if
+     * necessary.
+     */
+    private void notifyWorldOfMoveStart()
+    {
+        if (world != null)
+        {
+            world.actorWillMove(this);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Lets this actor's world know that its location, extent, or image
+     * may have changed, so the world can keep its cell index (and the
+     * region its view needs to repaint) up to date.
+     */
+    private void notifyWorldOfMove()
+    {
+        if (world != null)
+        {
+            world.actorMoved(this);
+        }
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Limits the value v to be less than limit and large or equal to zero.
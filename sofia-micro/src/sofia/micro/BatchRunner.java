@@ -0,0 +1,547 @@
+package sofia.micro;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import sofia.micro.internal.RunContext;
+
+//-------------------------------------------------------------------------
+/**
+ * Runs many independent worlds side by side, headless, on a bounded pool
+ * of worker threads--for example, to run every student's program against
+ * every one of a set of fixture worlds when grading.  Each world is
+ * created by a {@link WorldFactory}, optionally given a program, and then
+ * run on a {@link VirtualClock} at full speed until it finishes or
+ * reaches a step limit, after which it is disposed of.  A world is
+ * finished when it stops itself, or when all of the programs in it
+ * (its own, and those of its programmable actors) have ended; a world
+ * that has no programs when it starts runs until it stops itself or
+ * reaches the step limit.  Programs are run with
+ * {@link ProgramHandoff#LOCKSTEP} handoff, so each run is repeatable.
+ *
+ * <pre>
+ * BatchRunner runner = new BatchRunner(8);
+ * runner.setStepLimit(500);
+ * runner.addAll(fixtures, programs);
+ * for (BatchRunner.Result result : runner.run())
+ * {
+ *     System.out.println(result);
+ * }
+ * </pre>
+ *
+ * <p>Each world is created and run in a {@link RunContext} of its own, so
+ * static state such as the most recently created world and the world
+ * controlled by the Greenfoot-style static methods is kept separate for
+ * each run, and runs on different threads cannot interfere.</p>
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public class BatchRunner
+{
+    //~ Fields ................................................................
+
+    private final int threads;
+    private volatile long stepLimit = DEFAULT_STEP_LIMIT;
+    private volatile Summarizer summarizer;
+    private final List<Job> jobs = new java.util.ArrayList<Job>();
+
+    private static final long DEFAULT_STEP_LIMIT = 10000;
+    private static final int MAX_SPEED = 100;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new batch runner that uses one worker thread per
+     * available processor.
+     */
+    public BatchRunner()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new batch runner.
+     * @param threads The number of worlds to run at the same time (must
+     *                be at least one).
+     */
+    public BatchRunner(int threads)
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException(
+                "A batch runner needs at least one thread.");
+        }
+        this.threads = threads;
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Set the most steps any one world will be run for.  The default is
+     * 10,000 steps.
+     * @param steps The step limit (must be positive).
+     */
+    public void setStepLimit(long steps)
+    {
+        if (steps <= 0)
+        {
+            throw new IllegalArgumentException(
+                "The step limit must be positive.");
+        }
+        stepLimit = steps;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the most steps any one world will be run for.
+     * @return The step limit.
+     */
+    public long getStepLimit()
+    {
+        return stepLimit;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Set how the final state of each world is summarized in its result.
+     * By default, the summary lists the number of actors of each class
+     * left in the world.
+     * @param summarizer The summarizer to use, or null for the default.
+     */
+    public void setSummarizer(Summarizer summarizer)
+    {
+        this.summarizer = summarizer;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Add a world to be run, as created by the given factory, with
+     * whatever programs it sets up for itself.
+     * @param factory The factory that creates the world.
+     */
+    public void add(WorldFactory factory)
+    {
+        add(factory, null);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Add a world to be run under the control of a program.  The world
+     * is created by the given factory, and must be a
+     * {@link ProgrammableWorld}.  An instance of the program class is
+     * then created (using its parameterless constructor) and given to
+     * the world with {@link ProgrammableWorld#setProgram(Program)}.
+     * @param factory      The factory that creates the world.
+     * @param programClass The class of the program to run in the world,
+     *                     or null to use the world's own program.
+     */
+    public synchronized void add(
+        WorldFactory factory, Class<? extends Program> programClass)
+    {
+        if (factory == null)
+        {
+            throw new IllegalArgumentException(
+                "The world factory cannot be null.");
+        }
+        jobs.add(new Job(factory, programClass));
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Add one world to be run for every pairing of a world factory and a
+     * program class, as if by calling {@link #add(WorldFactory, Class)}
+     * for each pair.
+     * @param factories      The factories that create the worlds.
+     * @param programClasses The classes of the programs to run in them.
+     */
+    public synchronized void addAll(
+        Collection<? extends WorldFactory> factories,
+        Collection<? extends Class<? extends Program>> programClasses)
+    {
+        for (Class<? extends Program> programClass : programClasses)
+        {
+            for (WorldFactory factory : factories)
+            {
+                add(factory, programClass);
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Run all of the worlds that have been added, and wait for them to
+     * finish.  The worlds that were added are cleared, so the runner can
+     * be reused for a new batch.
+     * @return The results, in the order the worlds were added.
+     * @throws InterruptedException if the calling thread is interrupted
+     *         while waiting, in which case any runs that have not started
+     *         yet are abandoned.
+     */
+    public List<Result> run()
+        throws InterruptedException
+    {
+        List<Job> batch;
+        synchronized (this)
+        {
+            batch = new java.util.ArrayList<Job>(jobs);
+            jobs.clear();
+        }
+
+        ExecutorService workers = java.util.concurrent.Executors
+            .newFixedThreadPool(threads, new ThreadFactory() {
+                private int count = 0;
+
+                // ----------------------------------------------
+                public synchronized Thread newThread(Runnable r)
+                {
+                    Thread result =
+                        new Thread(r, "BatchRunner-worker-" + (++count));
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+        try
+        {
+            List<Callable<Result>> tasks =
+                new java.util.ArrayList<Callable<Result>>(batch.size());
+            for (final Job job : batch)
+            {
+                tasks.add(new Callable<Result>() {
+                    public Result call()
+                    {
+                        return runJob(job);
+                    }
+                });
+            }
+
+            List<Result> results = new java.util.ArrayList<Result>();
+            for (Future<Result> future : workers.invokeAll(tasks))
+            {
+                try
+                {
+                    results.add(future.get());
+                }
+                catch (ExecutionException e)
+                {
+                    // runJob() reports its own failures, so this is an
+                    // Error that escaped it
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create, run, and dispose of one world, in a context of its own.
+     * Must be called on a worker thread.
+     */
+    private Result runJob(Job job)
+    {
+        RunContext.begin();
+        long start = System.nanoTime();
+        World world = null;
+        try
+        {
+            world = job.factory.createWorld();
+            if (job.programClass != null)
+            {
+                if (!(world instanceof ProgrammableWorld))
+                {
+                    throw new IllegalArgumentException("A program can only "
+                        + "be run in a ProgrammableWorld, not in a "
+                        + world.getClass().getSimpleName() + ".");
+                }
+                ((ProgrammableWorld)world).setProgram(
+                    job.programClass.getConstructor().newInstance());
+            }
+
+            VirtualClock clock = new VirtualClock();
+            world.setClock(clock);
+            world.setSpeed(MAX_SPEED);
+
+            // Programs act one at a time, in act order, so that running
+            // the same job twice gives the same result
+            world.setProgramHandoff(ProgramHandoff.LOCKSTEP);
+
+            // A world with no programs to begin with only finishes by
+            // stopping itself
+            boolean hasPrograms = world.hasRunningPrograms();
+
+            // At full speed, each advance of the minimum interval runs
+            // exactly one step
+            long limit = stepLimit;
+            boolean finished = false;
+            world.start();
+            while (!finished && world.getStepCount() < limit)
+            {
+                finished = isFinished(world, hasPrograms);
+                if (!finished)
+                {
+                    clock.advance(clock.getMinimumStepInterval());
+                }
+            }
+            finished = finished || isFinished(world, hasPrograms);
+            world.stop();
+
+            Summarizer custom = summarizer;
+            return new Result(job, finished, world.getStepCount(),
+                System.nanoTime() - start,
+                (custom == null) ? countActors(world) : custom.summarize(world),
+                null);
+        }
+        catch (Exception e)
+        {
+            // Report what went wrong in the program's constructor, rather
+            // than the reflection wrapper around it
+            Throwable failure =
+                (e instanceof java.lang.reflect.InvocationTargetException)
+                ? e.getCause()
+                : e;
+            return new Result(job, false,
+                (world == null) ? 0 : world.getStepCount(),
+                System.nanoTime() - start, null, failure);
+        }
+        finally
+        {
+            if (world != null)
+            {
+                world.dispose();
+            }
+            RunContext.end();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determine whether a running world is finished: it has stopped
+     * itself, or it had programs and all of them have ended.
+     */
+    private static boolean isFinished(World world, boolean hasPrograms)
+    {
+        return !world.isRunning()
+            || (hasPrograms && !world.hasRunningPrograms());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Produce the default summary of a world: the number of actors of
+     * each class in it, by class name.
+     */
+    private static String countActors(World world)
+    {
+        Map<String, Integer> counts = new java.util.TreeMap<String, Integer>();
+        for (Actor actor : world.getObjects())
+        {
+            String name = actor.getClass().getSimpleName();
+            Integer count = counts.get(name);
+            counts.put(name, (count == null) ? 1 : count + 1);
+        }
+        return counts.toString();
+    }
+
+
+    //~ Nested Classes ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates the worlds for a {@link BatchRunner}.  A factory is called
+     * on a worker thread, once for each world to run, and must return a
+     * new world each time.
+     */
+    public static interface WorldFactory
+    {
+        // ----------------------------------------------------------
+        /**
+         * Create a new world.
+         * @return The new world.
+         */
+        World createWorld();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Describes the final state of a world in the results of a
+     * {@link BatchRunner}.
+     */
+    public static interface Summarizer
+    {
+        // ----------------------------------------------------------
+        /**
+         * Summarize the state of a world after it has been run.
+         * @param world The world.
+         * @return A summary of the world's state.
+         */
+        String summarize(World world);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * The outcome of running one world.
+     */
+    public static class Result
+    {
+        private final WorldFactory factory;
+        private final Class<? extends Program> programClass;
+        private final boolean finished;
+        private final long steps;
+        private final long wallTime;
+        private final String summary;
+        private final Throwable failure;
+
+
+        // ----------------------------------------------------------
+        private Result(Job job, boolean finished, long steps, long wallTime,
+            String summary, Throwable failure)
+        {
+            this.factory = job.factory;
+            this.programClass = job.programClass;
+            this.finished = finished;
+            this.steps = steps;
+            this.wallTime = wallTime;
+            this.summary = summary;
+            this.failure = failure;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the factory that created the world.
+         * @return The world factory.
+         */
+        public WorldFactory getWorldFactory()
+        {
+            return factory;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the class of the program that was run in the world.
+         * @return The program class, or null if the world ran its own.
+         */
+        public Class<? extends Program> getProgramClass()
+        {
+            return programClass;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Determine whether the world finished before reaching the step
+         * limit.
+         * @return True if the world finished, or false if it was cut off
+         *         at the step limit (or failed).
+         */
+        public boolean isFinished()
+        {
+            return finished;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the number of steps the world took.
+         * @return The number of steps.
+         */
+        public long getSteps()
+        {
+            return steps;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the real time taken to create and run the world.
+         * @return The wall-clock time, in nanoseconds.
+         */
+        public long getWallTime()
+        {
+            return wallTime;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the summary of the world's final state.
+         * @return The summary, or null if the run failed.
+         */
+        public String getSummary()
+        {
+            return summary;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the exception that ended the run, if creating or running
+         * the world failed.  Exceptions thrown by actors' act() methods
+         * or by programs do not end the run, and are not reported here.
+         * @return The exception, or null if the run did not fail.
+         */
+        public Throwable getFailure()
+        {
+            return failure;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public String toString()
+        {
+            return ((programClass == null)
+                    ? ""
+                    : programClass.getSimpleName() + " ")
+                + (finished ? "finished" : "stopped")
+                + " after " + steps + " steps in "
+                + (wallTime / 1000000L) + "ms: "
+                + ((failure == null) ? summary : failure.toString());
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    private static class Job
+    {
+        final WorldFactory factory;
+        final Class<? extends Program> programClass;
+
+        // ----------------------------------------------------------
+        Job(WorldFactory factory, Class<? extends Program> programClass)
+        {
+            this.factory = factory;
+            this.programClass = programClass;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package sofia.micro;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import sofia.micro.internal.EngineScheduler;
+
+//-------------------------------------------------------------------------
+/**
+ * The source of time for a {@link World}: it tells the world's engine
+ * what time it is, and runs the engine's steps when they are due.  By
+ * default, worlds use {@link #SYSTEM}, which uses real time.  Tests can
+ * give a world a {@link VirtualClock} instead, so that the world can be
+ * run for thousands of steps without actually waiting between them.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public interface Clock
+{
+    //~ Constants .............................................................
+
+    /**
+     * The real-time clock, which runs steps on a thread pool shared by
+     * all worlds.
+     */
+    Clock SYSTEM = new Clock() {
+        // ----------------------------------------------------------
+        public long nanoTime()
+        {
+            return System.nanoTime();
+        }
+
+
+        // ----------------------------------------------------------
+        public Future<?> schedule(Runnable task, long delay)
+        {
+            return EngineScheduler.getShared().schedule(
+                task, delay, TimeUnit.NANOSECONDS);
+        }
+
+
+        // ----------------------------------------------------------
+        public long getMinimumStepInterval()
+        {
+            return 0;
+        }
+
+
+        // ----------------------------------------------------------
+        public void runDueTasks()
+        {
+            // Tasks run on the scheduler's own threads
+        }
+    };
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Get the current time.  Like {@link System#nanoTime()}, this is only
+     * meaningful when compared with other times from the same clock.
+     * @return The current time, in nanoseconds.
+     */
+    long nanoTime();
+
+
+    // ----------------------------------------------------------
+    /**
+     * Run a task after a delay.
+     * @param task  The task to run.
+     * @param delay How long to wait first, in nanoseconds.  A delay of
+     *              zero (or less) means the task should run as soon as
+     *              possible.  This method must not run the task itself
+     *              before returning.
+     * @return A future that can be used to cancel the task.
+     */
+    Future<?> schedule(Runnable task, long delay);
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the shortest time a running world waits between one step and
+     * the next, even at full speed.
+     * @return The minimum interval between steps, in nanoseconds.
+     */
+    long getMinimumStepInterval();
+
+
+    // ----------------------------------------------------------
+    /**
+     * Run any tasks that are already due, on the calling thread, if this
+     * clock runs tasks on the caller's thread rather than its own.  A
+     * world calls this after it is started, stopped, or asked for a
+     * single step, so that with such a clock those requests are finished
+     * by the time they return.
+     */
+    void runDueTasks();
+}
@@ -0,0 +1,38 @@
+package sofia.micro;
+
+//-------------------------------------------------------------------------
+/**
+ * The ways a world can hand control to the programs of its programmable
+ * actors (and its own program, if it is programmable) during each step.
+ * See {@link World#setProgramHandoff(ProgramHandoff)}.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public enum ProgramHandoff
+{
+    //~ Constants .............................................................
+
+    /**
+     * Each program is resumed and left to run its next atomic action on
+     * its own, while the step goes on.  Program actions can overlap other
+     * actors' {@code act()} calls and the repaint at the end of the step.
+     */
+    CONCURRENT,
+
+    /**
+     * Each program is resumed and the step waits for its next atomic
+     * action to finish before going on, so programs act one at a time, in
+     * act order, like any other actor.
+     */
+    LOCKSTEP,
+
+    /**
+     * All of the programs are resumed as their actors act, and their
+     * actions run at the same time, but the step waits for all of them to
+     * finish before the step's adds and removes are applied and the
+     * world is repainted.
+     */
+    BARRIER
+}
@@ -307,16 +307,14 @@ public class ProgrammableActor
      * act() is called.  A program value of null will remove any assigned
      * program for this actor.
      *
+     * <p>If this actor is removed from its world, its program is ended,
+     * and if it is added to a world again, the program starts over from
+     * the beginning.</p>
+     *
      * @param program The program to activate.
      */
     public void setProgram(Program program)
     {
-        if (getWorld() == null)
-        {
-            futureProgram = program;
-            return;
-        }
-
         if (programThread != null)
         {
             // Stop the thread before resetting the reference
@@ -324,9 +322,15 @@ public class ProgrammableActor
             programThread = null;
         }
 
+        if (getWorld() == null)
+        {
+            futureProgram = program;
+            return;
+        }
+
         if (program != null)
         {
-            programThread = new ProgramThread(this, program);
+            programThread = getWorld().newProgramThread(this, program);
             programThread.start();
         }
         // TODO: add some kind of "finishActing()" and "isFinished()"
@@ -359,6 +363,21 @@ public class ProgrammableActor
 
     //~ Protected Methods .....................................................
 
+    // ----------------------------------------------------------
+    /**
+     * Determine whether this actor's program is still running (or has
+     * yet to start running).
+     * @return True if this actor has a program that has not finished.
+     */
+    protected boolean isProgramRunning()
+    {
+        ProgramThread thread = programThread;
+        return futureProgram != null
+            || (thread != null
+                && thread.getState() != Thread.State.TERMINATED);
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Triggers one action in this actor's program.
@@ -376,6 +395,10 @@ public class ProgrammableActor
             {
                 programThread = null;
             }
+            else if (getWorld() != null)
+            {
+                getWorld().resumeProgram(programThread);
+            }
             else
             {
                 programThread.resumeProgram();
@@ -389,7 +412,23 @@ public class ProgrammableActor
     /* package */ void setWorld(World world)
     {
         super.setWorld(world);
-        if (futureProgram != null)
+        if (world == null)
+        {
+            // Once removed, this actor is no longer stepped, so its program
+            // would otherwise wait forever.  Release it now, and keep it to
+            // start over if this actor is added to a world again.
+            ProgramThread thread = programThread;
+            if (thread != null)
+            {
+                if (thread.getState() != Thread.State.TERMINATED)
+                {
+                    futureProgram = thread.getProgram();
+                }
+                thread.releaseProgram();
+                programThread = null;
+            }
+        }
+        else if (futureProgram != null)
         {
             setProgram(futureProgram);
             futureProgram = null;
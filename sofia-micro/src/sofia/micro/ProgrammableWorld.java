@@ -316,6 +316,19 @@ public class ProgrammableWorld
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Release the resources held by this world, including ending its own
+     * program.
+     */
+    @Override
+    public void dispose()
+    {
+        stopProgram();
+        super.dispose();
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Subclasses can override this method to provide the "program"
@@ -335,28 +348,23 @@ public class ProgrammableWorld
      * act() is called.  A program value of null will remove any assigned
      * program for this world.
      *
+     * <p>The program's thread is not created until the world's next step,
+     * so settings such as {@link #setVirtualProgramThreads(boolean)}
+     * and {@link #setProgramStackSize(long)} apply to it even when they
+     * are made after the program is set (as they are for a world's own
+     * {@link #myProgram()}, which is set by the constructor).</p>
+     *
      * @param program The program to activate.
      */
     public void setProgram(Program program)
     {
-        if (getWorldView() == null)
-        {
-            futureProgram = program;
-            return;
-        }
-
         if (programThread != null)
         {
             // Stop the thread before resetting the reference
             programThread.endProgram();
             programThread = null;
         }
-
-        if (program != null)
-        {
-            programThread = new ProgramThread(this, program);
-            programThread.start();
-        }
+        futureProgram = program;
         // TODO: add some kind of "finishActing()" and "isFinished()"
         // pair of methods to allow actors to be "stopped" in general?
     }
@@ -369,6 +377,10 @@ public class ProgrammableWorld
      */
     public Program getProgram()
     {
+        if (futureProgram != null)
+        {
+            return futureProgram;
+        }
         return programThread == null
             ? null
             : programThread.getProgram();
@@ -387,12 +399,33 @@ public class ProgrammableWorld
 
     //~ Protected Methods .....................................................
 
+    // ----------------------------------------------------------
+    /**
+     * {@inheritDoc}  This includes the world's own program.
+     */
+    @Override
+    /* package */ boolean hasRunningPrograms()
+    {
+        ProgramThread thread = programThread;
+        return futureProgram != null
+            || (thread != null
+                && thread.getState() != Thread.State.TERMINATED)
+            || super.hasRunningPrograms();
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Triggers one action in this world's program.
      */
     protected void programStep()
     {
+        if (futureProgram != null)
+        {
+            programThread = newProgramThread(this, futureProgram);
+            futureProgram = null;
+        }
+
         if (programThread != null)
         {
             if (programThread.getState() == Thread.State.NEW)
@@ -406,21 +439,8 @@ public class ProgrammableWorld
             }
             else
             {
-                programThread.resumeProgram();
+                resumeProgram(programThread);
             }
         }
     }
-
-
-    // ----------------------------------------------------------
-    @Override
-    /* package */ void setWorldView(WorldView view)
-    {
-        super.setWorldView(view);
-        if (futureProgram != null)
-        {
-            setProgram(futureProgram);
-            futureProgram = null;
-        }
-    }
 }
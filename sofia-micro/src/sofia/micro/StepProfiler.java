@@ -0,0 +1,613 @@
+package sofia.micro;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+
+//-------------------------------------------------------------------------
+/**
+ * Measures where the time goes in each step of a {@link World}: in the
+ * view's act(), the world's act(), each actor's act() (totaled by the
+ * actor's class), applying adds and removes, and repainting.  It also
+ * keeps track of the few actors whose act() took longest.  To profile a
+ * world, give it a profiler, run it for a while, and then look at the
+ * results:
+ *
+ * <pre>
+ * StepProfiler profiler = new StepProfiler();
+ * world.setProfiler(profiler);
+ * ...
+ * System.out.println(profiler);
+ * </pre>
+ *
+ * <p>Times are kept in {@link Histogram}s, which record each measurement
+ * in a fixed set of buckets without allocating anything, so profiling
+ * adds little to the cost of a step.  A world without a profiler (the
+ * default) does not measure anything at all.  Times are measured in real
+ * time, even if the world uses a {@link VirtualClock}.</p>
+ *
+ * <p>A profiler can be read (or reset) from any thread while its world
+ * is running.  It only holds weak references to the actors it reports
+ * as slowest, so keeping a profiler (or sharing one between worlds) does
+ * not keep removed actors, or the worlds they were in, from being
+ * freed.</p>
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public class StepProfiler
+{
+    //~ Fields ................................................................
+
+    private final Histogram steps = new Histogram();
+    private final Histogram viewActs = new Histogram();
+    private final Histogram worldActs = new Histogram();
+    private final Histogram deferredActions = new Histogram();
+    private final Histogram repaints = new Histogram();
+    private final Histogram programActions = new Histogram();
+    private final Map<Class<?>, Histogram> actorActs =
+        new java.util.LinkedHashMap<Class<?>, Histogram>();
+
+    // The slowest single act() calls, one per actor, kept unsorted; each
+    // actor's class and description are kept in case it is freed
+    private final WeakReference<?>[] slowestActors;
+    private final Class<?>[] slowestClasses;
+    private final String[] slowestNames;
+    private final long[] slowestTimes;
+    private int slowestCount = 0;
+
+    private static final int DEFAULT_SLOWEST = 10;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new profiler that keeps track of the 10 slowest actors.
+     */
+    public StepProfiler()
+    {
+        this(DEFAULT_SLOWEST);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new profiler.
+     * @param slowest The number of slowest actors to keep track of.
+     */
+    public StepProfiler(int slowest)
+    {
+        if (slowest < 0)
+        {
+            throw new IllegalArgumentException(
+                "The number of slowest actors cannot be negative.");
+        }
+        slowestActors = new WeakReference<?>[slowest];
+        slowestClasses = new Class<?>[slowest];
+        slowestNames = new String[slowest];
+        slowestTimes = new long[slowest];
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Get the times taken by whole steps.
+     * @return A copy of the step time histogram.
+     */
+    public synchronized Histogram getStepTimes()
+    {
+        return new Histogram(steps);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the times taken by the view's act() method.
+     * @return A copy of the view act() time histogram.
+     */
+    public synchronized Histogram getViewActTimes()
+    {
+        return new Histogram(viewActs);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the times taken by the world's act() method.
+     * @return A copy of the world act() time histogram.
+     */
+    public synchronized Histogram getWorldActTimes()
+    {
+        return new Histogram(worldActs);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the times taken by the act() methods of actors of one class.
+     * @param cls The class of actor (subclasses are counted separately).
+     * @return A copy of the histogram for that class, which is empty if
+     *         no actor of that class has acted.
+     */
+    public synchronized Histogram getActorActTimes(Class<? extends Actor> cls)
+    {
+        Histogram result = actorActs.get(cls);
+        return (result == null) ? new Histogram() : new Histogram(result);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the times taken by the act() methods of actors, for each class
+     * of actor that has acted.
+     * @return A map from each class to a copy of its histogram.
+     */
+    public synchronized Map<Class<?>, Histogram> getActorActTimesByClass()
+    {
+        Map<Class<?>, Histogram> result =
+            new java.util.LinkedHashMap<Class<?>, Histogram>();
+        for (Map.Entry<Class<?>, Histogram> entry : actorActs.entrySet())
+        {
+            result.put(entry.getKey(), new Histogram(entry.getValue()));
+        }
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the times taken to apply the adds and removes made during each
+     * step.
+     * @return A copy of the deferred action time histogram.
+     */
+    public synchronized Histogram getDeferredActionTimes()
+    {
+        return new Histogram(deferredActions);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the times taken to ask the view to repaint after each step.
+     * @return A copy of the repaint time histogram.
+     */
+    public synchronized Histogram getRepaintTimes()
+    {
+        return new Histogram(repaints);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the times taken by each program to carry out an atomic action,
+     * from when it was resumed until it paused again.  These are only
+     * measured when the world's program handoff is
+     * {@link ProgramHandoff#LOCKSTEP}.
+     * @return A copy of the program action time histogram.
+     */
+    public synchronized Histogram getProgramActionTimes()
+    {
+        return new Histogram(programActions);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the actors whose single longest call to act() took the most
+     * time, slowest first.
+     * @return The slowest actors.
+     */
+    public synchronized List<ActorTime> getSlowestActors()
+    {
+        List<ActorTime> result = new java.util.ArrayList<ActorTime>();
+        for (int i = 0; i < slowestCount; i++)
+        {
+            result.add(new ActorTime((Actor)slowestActors[i].get(),
+                slowestClasses[i], slowestNames[i], slowestTimes[i]));
+        }
+        java.util.Collections.sort(result);
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Discard all of the measurements made so far.
+     */
+    public synchronized void reset()
+    {
+        steps.clear();
+        viewActs.clear();
+        worldActs.clear();
+        deferredActions.clear();
+        repaints.clear();
+        programActions.clear();
+        actorActs.clear();
+        java.util.Arrays.fill(slowestActors, null);
+        java.util.Arrays.fill(slowestClasses, null);
+        java.util.Arrays.fill(slowestNames, null);
+        slowestCount = 0;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Produce a report of the measurements made so far.
+     * @return The report.
+     */
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        result.append("step:              ").append(steps).append('\n');
+        result.append("view act():        ").append(viewActs).append('\n');
+        result.append("world act():       ").append(worldActs).append('\n');
+        for (Map.Entry<Class<?>, Histogram> entry : actorActs.entrySet())
+        {
+            result.append(entry.getKey().getSimpleName()).append(".act(): ")
+                .append(entry.getValue()).append('\n');
+        }
+        if (programActions.getCount() > 0)
+        {
+            result.append("program actions:   ").append(programActions)
+                .append('\n');
+        }
+        result.append("deferred actions:  ").append(deferredActions)
+            .append('\n');
+        result.append("repaint:           ").append(repaints).append('\n');
+        for (ActorTime slow : getSlowestActors())
+        {
+            result.append("slow: ").append(slow).append('\n');
+        }
+        return result.toString();
+    }
+
+
+    //~ Internal Methods ......................................................
+
+    // ----------------------------------------------------------
+    /* package */ synchronized void recordStep(long nanos)
+    {
+        steps.record(nanos);
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ synchronized void recordViewAct(long nanos)
+    {
+        viewActs.record(nanos);
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ synchronized void recordWorldAct(long nanos)
+    {
+        worldActs.record(nanos);
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ synchronized void recordDeferredActions(long nanos)
+    {
+        deferredActions.record(nanos);
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ synchronized void recordRepaint(long nanos)
+    {
+        repaints.record(nanos);
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ synchronized void recordProgramAction(long nanos)
+    {
+        programActions.record(nanos);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Record the time taken by one call to an actor's act() method.  May
+     * be called from several threads at once, if the world acts in
+     * parallel.
+     */
+    /* package */ synchronized void recordActorAct(Actor actor, long nanos)
+    {
+        Class<?> cls = actor.getClass();
+        Histogram histogram = actorActs.get(cls);
+        if (histogram == null)
+        {
+            histogram = new Histogram();
+            actorActs.put(cls, histogram);
+        }
+        histogram.record(nanos);
+
+        // Update the actor's entry among the slowest, if it has one, or
+        // else replace the fastest entry if this time beats it
+        int fastest = -1;
+        for (int i = 0; i < slowestCount; i++)
+        {
+            if (slowestActors[i].get() == actor)
+            {
+                slowestTimes[i] = Math.max(slowestTimes[i], nanos);
+                return;
+            }
+            if (fastest < 0 || slowestTimes[i] < slowestTimes[fastest])
+            {
+                fastest = i;
+            }
+        }
+        if (slowestCount < slowestActors.length)
+        {
+            setSlowest(slowestCount, actor, nanos);
+            slowestCount++;
+        }
+        else if (fastest >= 0 && nanos > slowestTimes[fastest])
+        {
+            setSlowest(fastest, actor, nanos);
+        }
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Fill in one of the entries for the slowest actors.  Must be called
+     * while holding this profiler's lock.
+     */
+    private void setSlowest(int index, Actor actor, long nanos)
+    {
+        slowestActors[index] = new WeakReference<Actor>(actor);
+        slowestClasses[index] = actor.getClass();
+        slowestNames[index] = actor.toString();
+        slowestTimes[index] = nanos;
+    }
+
+
+    //~ Nested Classes ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * A histogram of times.  Each time is counted in a bucket by its
+     * power of two (so bucket <i>k</i> holds times from 2<sup>k-1</sup>
+     * up to 2<sup>k</sup> nanoseconds), which makes recording a time a
+     * constant-time operation that allocates nothing, at the cost of
+     * percentiles only being accurate to within a factor of two.  The
+     * count, total, and maximum are exact.
+     */
+    public static class Histogram
+    {
+        private final long[] buckets = new long[64];
+        private long count;
+        private long total;
+        private long max;
+
+
+        // ----------------------------------------------------------
+        /**
+         * Create a new, empty histogram.
+         */
+        public Histogram()
+        {
+            // Nothing to do
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Create a copy of a histogram.
+         * @param other The histogram to copy.
+         */
+        public Histogram(Histogram other)
+        {
+            System.arraycopy(other.buckets, 0, buckets, 0, buckets.length);
+            count = other.count;
+            total = other.total;
+            max = other.max;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Add a time to this histogram.
+         * @param nanos The time, in nanoseconds.
+         */
+        public void record(long nanos)
+        {
+            if (nanos < 0)
+            {
+                nanos = 0;
+            }
+            buckets[64 - Long.numberOfLeadingZeros(nanos)]++;
+            count++;
+            total += nanos;
+            if (nanos > max)
+            {
+                max = nanos;
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Remove all times from this histogram.
+         */
+        public void clear()
+        {
+            java.util.Arrays.fill(buckets, 0);
+            count = 0;
+            total = 0;
+            max = 0;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the number of times recorded.
+         * @return The number of times.
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the sum of all the times recorded.
+         * @return The total time, in nanoseconds.
+         */
+        public long getTotal()
+        {
+            return total;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the average of the times recorded.
+         * @return The mean time, in nanoseconds, or zero if there are no
+         *         times.
+         */
+        public double getMean()
+        {
+            return (count == 0) ? 0 : total / (double)count;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the longest time recorded.
+         * @return The maximum time, in nanoseconds.
+         */
+        public long getMax()
+        {
+            return max;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get an upper bound on a percentile of the times recorded, such
+         * as the median (50) or the 99th percentile (99).
+         * @param percent The percentile, from 0 to 100.
+         * @return A time, in nanoseconds, that at least the given
+         *         percentage of the times recorded do not exceed.  It is
+         *         at most twice the true percentile (and never more than
+         *         the maximum).
+         */
+        public long getPercentile(double percent)
+        {
+            long needed = (long)Math.ceil(count * percent / 100.0);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++)
+            {
+                seen += buckets[i];
+                if (seen >= needed && seen > 0)
+                {
+                    long bound = (i == 0) ? 0 : ((1L << i) - 1);
+                    return Math.min(bound, max);
+                }
+            }
+            return max;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public String toString()
+        {
+            return count + " times, mean " + (long)getMean()
+                + "ns, median <= " + getPercentile(50)
+                + "ns, 99% <= " + getPercentile(99)
+                + "ns, max " + max + "ns";
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * The longest time an actor's act() method has taken.
+     */
+    public static class ActorTime
+        implements Comparable<ActorTime>
+    {
+        private final Actor actor;
+        private final Class<?> actorClass;
+        private final String name;
+        private final long time;
+
+
+        // ----------------------------------------------------------
+        private ActorTime(
+            Actor actor, Class<?> actorClass, String name, long time)
+        {
+            this.actor = actor;
+            this.actorClass = actorClass;
+            this.name = name;
+            this.time = time;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the actor.
+         * @return The actor, or null if it has been freed since its time
+         *         was recorded.
+         */
+        public Actor getActor()
+        {
+            return actor;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the actor's class, which is known even if the actor has been
+         * freed.
+         * @return The actor's class.
+         */
+        public Class<?> getActorClass()
+        {
+            return actorClass;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Get the longest time the actor's act() method has taken.
+         * @return The time, in nanoseconds.
+         */
+        public long getTime()
+        {
+            return time;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Order slower actors first.
+         * @param other The time to compare with.
+         * @return A negative number if this time is longer.
+         */
+        public int compareTo(ActorTime other)
+        {
+            return (time > other.time) ? -1 : ((time < other.time) ? 1 : 0);
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public String toString()
+        {
+            return name + ": " + time + "ns";
+        }
+    }
+}
@@ -38,4 +38,82 @@ public class TestCase
 
 
     //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Run a world for a number of steps, right away, on the test's own
+     * thread.  Each step waits for every program it resumes to finish its
+     * atomic action before going on, so when this method returns, all of
+     * the steps (and the actions of all programs) have been completed.
+     * There is no need to start the world or sleep.  The world must not
+     * be running.
+     *
+     * @param world The world to run.
+     * @param steps The number of steps to run.
+     */
+    public void runSteps(World world, int steps)
+    {
+        for (int i = 0; i < steps; i++)
+        {
+            world.stepNow();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Run a world, one step at a time on the test's own thread (as in
+     * {@link #runSteps(World, int)}), until a condition holds.  The
+     * condition is checked before each step, and once more at the end.
+     *
+     * <pre>
+     * assertTrue(runUntil(island, new Predicate&lt;Island&gt;() {
+     *     public boolean test(Island island)
+     *     {
+     *         return island.numberOfObjects(Flower.class) == 0;
+     *     }
+     * }, 100));
+     * </pre>
+     *
+     * @param world     The world to run.
+     * @param predicate The condition to wait for.
+     * @param maxSteps  The most steps to run.
+     * @param <MyWorld> The type of the world.
+     * @return True if the condition held within the given number of
+     *         steps, or false if it still did not hold after them.
+     */
+    public <MyWorld extends World> boolean runUntil(
+        MyWorld world, Predicate<? super MyWorld> predicate, int maxSteps)
+    {
+        for (int i = 0; i < maxSteps; i++)
+        {
+            if (predicate.test(world))
+            {
+                return true;
+            }
+            world.stepNow();
+        }
+        return predicate.test(world);
+    }
+
+
+    //~ Nested Types ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * A condition on a world, for use with
+     * {@link TestCase#runUntil(World, Predicate, int)}.
+     *
+     * @param <MyWorld> The type of world the condition applies to.
+     */
+    public static interface Predicate<MyWorld extends World>
+    {
+        // ----------------------------------------------------------
+        /**
+         * Determine whether this condition holds for a world.
+         * @param world The world to check.
+         * @return True if the condition holds.
+         */
+        boolean test(MyWorld world);
+    }
 }
@@ -0,0 +1,307 @@
+package sofia.micro;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+//-------------------------------------------------------------------------
+/**
+ * A {@link Clock} whose time only moves when it is told to, for use in
+ * tests.  Time stands still until {@link #advance(long)} is called, which
+ * immediately runs every step that falls due in the given span of time,
+ * on the calling thread, without actually waiting.  Anything that should
+ * happen "right away" (such as the first step after a world is started,
+ * or the handling of a stop request) happens during the call that caused
+ * it, so {@link World#start()}, {@link World#stop()}, and single steps
+ * all finish before they return.
+ *
+ * <pre>
+ * VirtualClock clock = new VirtualClock();
+ * world.setClock(clock);
+ * world.start();                          // runs the first step
+ * clock.advance(10, TimeUnit.SECONDS);    // runs the next 10 seconds
+ * world.stop();
+ * </pre>
+ *
+ * <p>So that a world running at full speed does not step forever without
+ * time passing, each step is taken to last at least a minimum interval
+ * (one millisecond, unless specified otherwise).</p>
+ *
+ * <p>A virtual clock is meant to be used from a single thread, normally
+ * the thread running a test.</p>
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public class VirtualClock
+    implements Clock
+{
+    //~ Fields ................................................................
+
+    private long now = 0;
+    private long sequence = 0;
+    private boolean isRunningTasks = false;
+    private final long minimumStepInterval;
+    private final PriorityQueue<Task> tasks;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new virtual clock where each step lasts at least one
+     * millisecond.
+     */
+    public VirtualClock()
+    {
+        this(1000000L);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new virtual clock.
+     * @param minimumStepInterval The shortest time a step may take, in
+     *                            nanoseconds (must be positive).
+     */
+    public VirtualClock(long minimumStepInterval)
+    {
+        if (minimumStepInterval <= 0)
+        {
+            throw new IllegalArgumentException(
+                "The minimum step interval must be positive.");
+        }
+        this.minimumStepInterval = minimumStepInterval;
+        tasks = new PriorityQueue<Task>();
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    public synchronized long nanoTime()
+    {
+        return now;
+    }
+
+
+    // ----------------------------------------------------------
+    public Future<?> schedule(Runnable task, long delay)
+    {
+        Task result;
+        synchronized (this)
+        {
+            result = new Task(task, now + Math.max(0L, delay), sequence++);
+            tasks.add(result);
+        }
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    public long getMinimumStepInterval()
+    {
+        return minimumStepInterval;
+    }
+
+
+    // ----------------------------------------------------------
+    public void runDueTasks()
+    {
+        runTasksUntil(nanoTime());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Move time forward, running every task that falls due along the
+     * way, in order.
+     * @param nanos How far to move time forward, in nanoseconds.
+     */
+    public void advance(long nanos)
+    {
+        long target;
+        synchronized (this)
+        {
+            target = now + nanos;
+        }
+        runTasksUntil(target);
+        synchronized (this)
+        {
+            now = Math.max(now, target);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Move time forward, running every task that falls due along the
+     * way, in order.
+     * @param amount How far to move time forward.
+     * @param unit   The unit of the amount.
+     */
+    public void advance(long amount, TimeUnit unit)
+    {
+        advance(unit.toNanos(amount));
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of tasks (such as worlds' next steps) waiting for
+     * their time to come.
+     * @return The number of pending tasks.
+     */
+    public synchronized int getPendingTaskCount()
+    {
+        return tasks.size();
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Run all tasks due at or before the given time, in order.  Tasks
+     * scheduled by the tasks being run are run too, if they fall due in
+     * time.  A nested call (from inside a running task) does nothing,
+     * since the outer call will pick up any new tasks.
+     */
+    private void runTasksUntil(long time)
+    {
+        synchronized (this)
+        {
+            if (isRunningTasks)
+            {
+                return;
+            }
+            isRunningTasks = true;
+        }
+        try
+        {
+            while (true)
+            {
+                Task next;
+                synchronized (this)
+                {
+                    next = tasks.peek();
+                    if (next == null || next.time > time)
+                    {
+                        break;
+                    }
+                    tasks.poll();
+                    now = Math.max(now, next.time);
+                }
+                next.run();
+            }
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                isRunningTasks = false;
+            }
+        }
+    }
+
+
+    //~ Private Classes .......................................................
+
+    // ----------------------------------------------------------
+    /**
+     * A task waiting for its time to run.
+     */
+    private class Task
+        implements Future<Object>, Comparable<Task>
+    {
+        private final Runnable runnable;
+        private final long time;
+        private final long sequence;
+        private volatile boolean started = false;
+        private volatile boolean cancelled = false;
+
+        // ----------------------------------------------------------
+        Task(Runnable runnable, long time, long sequence)
+        {
+            this.runnable = runnable;
+            this.time = time;
+            this.sequence = sequence;
+        }
+
+
+        // ----------------------------------------------------------
+        void run()
+        {
+            synchronized (this)
+            {
+                if (cancelled)
+                {
+                    return;
+                }
+                started = true;
+            }
+            runnable.run();
+        }
+
+
+        // ----------------------------------------------------------
+        public int compareTo(Task other)
+        {
+            if (time != other.time)
+            {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence
+                ? -1
+                : (sequence == other.sequence ? 0 : 1);
+        }
+
+
+        // ----------------------------------------------------------
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            synchronized (this)
+            {
+                if (started || cancelled)
+                {
+                    return false;
+                }
+                cancelled = true;
+            }
+            synchronized (VirtualClock.this)
+            {
+                tasks.remove(this);
+            }
+            return true;
+        }
+
+
+        // ----------------------------------------------------------
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+
+        // ----------------------------------------------------------
+        public boolean isDone()
+        {
+            return started || cancelled;
+        }
+
+
+        // ----------------------------------------------------------
+        public Object get()
+        {
+            return null;
+        }
+
+
+        // ----------------------------------------------------------
+        public Object get(long timeout, TimeUnit unit)
+        {
+            return null;
+        }
+    }
+}
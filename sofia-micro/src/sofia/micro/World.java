@@ -12,11 +12,24 @@ import sofia.graphics.Color;
 import sofia.graphics.Image;
 import sofia.graphics.Shape;
 import sofia.graphics.ShapeSet;
+import sofia.micro.internal.CellIndex;
+import sofia.micro.internal.ClassIndex;
+import sofia.micro.internal.EngineEvents;
+import sofia.micro.internal.ProgramThread;
+import sofia.micro.internal.RunContext;
+import sofia.micro.internal.TraceBuffer;
 
 //-------------------------------------------------------------------------
 /**
  * Represents a "microworld" containing Actors and rendered on a screen.
  *
+ * <p>A world keeps track of its own actors, so it can also be created,
+ * populated, queried, and run "headless"--that is, without ever being
+ * attached to a {@link WorldView}.  This is useful for running large
+ * numbers of worlds in batch (for example, when grading), where there is
+ * no screen to draw on.  If the world is later attached to a view, all of
+ * its actors are transferred to the view for drawing.</p>
+ *
  * @author  Stephen Edwards
  * @author  Last changed by $Author: edwards $
  * @version $Date: 2012/08/06 11:13 $
@@ -46,22 +59,71 @@ public class World
     private RectF  gridArea;        // In pixels
     private RectF  backgroundRect;  // BB for background image in grid coords
     private Matrix gridTransform;
-    private List<Actor> deferredAdds;
-    private Set<Actor> deferredRemoves;
-    private Set<Actor> actSet;
+    private Paint  backgroundPaint;
+    private Paint  gridPaint;
+    private Bitmap backgroundCache;     // Only touched by draw()
+    private RectF  backgroundCacheRect; // In grid coords
+    private volatile boolean backgroundCacheIsStale = true;
+
+    // Dirty-region tracking, guarded by actorSetLock.  Regions are kept
+    // as inclusive cell ranges {left, top, right, bottom}, and are empty
+    // when left > right.
+    private volatile boolean repaintOnlyChanges = false;
+    private volatile long changeEpoch = 0;
+    private final int[] dirtyCells = emptyRange();
+    private final int[] previousDirtyCells = emptyRange();
+    private final int[] movedRange = new int[4];
+    private boolean allDirty = true;
+    private boolean previousAllDirty = true;
+    private ClassIndex<Actor> actors;
+    private CellIndex<Actor> cells;
+    private long nextActorSequence = 0;
+    private ActList actList;
     private Object actorSetLock = new Object();
+    private Class<? extends Actor>[] paintOrder;
+    private ClassOrder paintClassOrder;
+
+    // Parallel act phase (see setParallelAct())
+    private volatile int actThreads = 1;
+    private volatile int interactionRange = 1;
+    private java.util.concurrent.ExecutorService actPool;
+    private final ThreadLocal<Stripe> currentStripe = new ThreadLocal<Stripe>();
+
+    // Double-buffered stepping (see setDoubleBuffered()).  While
+    // readingSnapshot is set, the indexes are frozen, the geometry of
+    // actors that move is saved in frozenGeometry, and adds and removes
+    // wait in nextState; all guarded by actorSetLock.  An actor that
+    // finishes moving without its geometry having been saved (because
+    // the step began part way through its move) is kept in
+    // movedInSnapshot, so that it is still re-indexed when the step ends.
+    private volatile boolean doubleBuffered = false;
+    private volatile boolean virtualPrograms = false;
+    private volatile boolean threadlessPrograms = false;
+    private volatile long programStackSize = 0;
+    private volatile boolean readingSnapshot = false;
+    private final java.util.Map<Actor, FrozenGeometry> frozenGeometry =
+        new java.util.IdentityHashMap<Actor, FrozenGeometry>();
+    private final java.util.Set<Actor> movedInSnapshot =
+        java.util.Collections.newSetFromMap(
+            new java.util.IdentityHashMap<Actor, Boolean>());
+    private final List<PendingChange> nextState =
+        new java.util.ArrayList<PendingChange>();
 
     private Engine engine;
+    private volatile Clock clock = Clock.SYSTEM;
+    private volatile long stepCount = 0;
+    private volatile StepProfiler profiler;
+    private final TraceBuffer trace = new TraceBuffer(TRACE_CAPACITY);
+    private static final int TRACE_CAPACITY = 2048;
+    private volatile boolean waitForPrograms = false;
+    private volatile ProgramHandoff programHandoff = ProgramHandoff.CONCURRENT;
+    private final java.util.Queue<ProgramThread> resumedPrograms =
+        new java.util.concurrent.ConcurrentLinkedQueue<ProgramThread>();
+    private static final long PROGRAM_ACTION_TIMEOUT = 5000000000L; // ns
+    private final RunContext context;
     private static final int MAX_SPEED = 100;
-    private static World mostRecentlyCreated = null;
-
-    /** Error message to display when trying to use methods that requires
-     * the actor be in a world.
-     */
-    private static final String WORLD_NOT_IN_VIEW = "World not in view. "
-        + "An attempt was made to use the world's features while it is not "
-        + "attached to a view. Either it has not yet been inserted, or it "
-        + "has been removed.";
+    private static final int MAX_CATCH_UP_STEPS = 5;
+    private static final long RATE_WINDOW = 1000000000L; // nanoseconds
 
     private static final org.slf4j.Logger log =
         org.slf4j.LoggerFactory.getLogger(World.class);
@@ -187,7 +249,8 @@ public class World
     public World(int width, int height, int scaledCellSize, boolean scaleToFit,
         boolean backgroundIsForCell)
     {
-        mostRecentlyCreated = this;
+        context = RunContext.getCurrent();
+        context.setMostRecentlyCreated(this);
         this.width = width;
         this.height = height;
         this.backgroundIsForCell = backgroundIsForCell;
@@ -198,9 +261,10 @@ public class World
         background.setUseDefaultIfNotFound(false);
         grid = new RectF(0, 0, width, height);
         setScaledCellSize(scaledCellSize, scaleToFit);
-        deferredAdds = new java.util.ArrayList<Actor>();
+        actors = new ClassIndex<Actor>();
+        cells = new CellIndex<Actor>(width, height);
+        actList = new ActList(new ClassOrder(false));
         engine = new Engine();
-        engine.start();
     }
 
 
@@ -235,34 +299,35 @@ public class World
      */
     public void add(Actor actor)
     {
+        Stripe stripe = currentStripe.get();
+        if (stripe != null)
+        {
+            stripe.defer(PendingChange.ADD, actor);
+            return;
+        }
+
         synchronized (actorSetLock)
         {
-            if (view == null)
+            if (readingSnapshot)
+            {
+                nextState.add(new PendingChange(PendingChange.ADD, actor));
+                return;
+            }
+            // TODO: implement appropriate add semantics
+            if (actors.add(actor))
             {
-                synchronized (deferredAdds)
+                actor.setWorldSequence(nextActorSequence++);
+                if (paintClassOrder != null)
                 {
-                    deferredAdds.add(actor);
+                    actor.setPaintRank(paintClassOrder.rankOf(actor));
                 }
+                actList.add(actor);
             }
-            else
+            actor.setWorld(this);
+            updateCellIndex(actor);
+            if (view != null)
             {
-                // TODO: implement appropriate add semantics
-                actor.setWorld(this);
                 view.add((Shape)actor);
-                if (actSet != null)
-                {
-                    if (isRunning())
-                    {
-                        synchronized (deferredAdds)
-                        {
-                            deferredAdds.add(actor);
-                        }
-                    }
-                    else
-                    {
-                        actSet.add(actor);
-                    }
-                }
             }
         }
         actor.addedToWorld(this);
@@ -296,43 +361,40 @@ public class World
     {
         if (actor.getWorld() == this)
         {
+            Stripe stripe = currentStripe.get();
+            if (stripe != null)
+            {
+                stripe.defer(PendingChange.REMOVE, actor);
+                return;
+            }
+
             synchronized (actorSetLock)
             {
+                if (readingSnapshot)
+                {
+                    nextState.add(
+                        new PendingChange(PendingChange.REMOVE, actor));
+                    return;
+                }
                 actor.setWorld(null);
-                if (actSet != null)
+                actList.remove(actor);
+                actors.remove(actor);
+                if (repaintOnlyChanges && cells.getRange(actor, movedRange))
                 {
-                    if (isRunning())
-                    {
-                        synchronized (deferredRemoves)
-                        {
-                            deferredRemoves.add(actor);
-                        }
-                    }
-                    else
-                    {
-                        actSet.remove(actor);
-                    }
+                    markDirty(movedRange);
+                }
+                cells.remove(actor);
+                if (view != null)
+                {
+                    view.remove((Shape)actor);
                 }
-                view.remove((Shape)actor);
             }
         }
-        // Otherwise, attempt to remove it from deferredAdds, if appropriate
-        else if (actor.getWorld() != null)
+        else
         {
             throw new IllegalArgumentException(
                 "The specified Actor is not in this World.");
         }
-        else
-        {
-            synchronized (deferredAdds)
-            {
-                if (!deferredAdds.remove(actor))
-                {
-                    throw new IllegalArgumentException(
-                    "The specified Actor is not in this World.");
-                }
-            }
-        }
     }
 
 
@@ -348,6 +410,7 @@ public class World
     public void setGridColor(Color gridColor)
     {
         this.gridColor = gridColor;
+        invalidateBackground();
     }
 
 
@@ -361,6 +424,7 @@ public class World
     public void setBackgroundColor(Color backgroundColor)
     {
         this.backgroundColor = backgroundColor;
+        invalidateBackground();
     }
 
 
@@ -391,6 +455,7 @@ public class World
         this.background = background;
         backgroundRect = new RectF(-0.5f, -0.5f, 0.5f, 0.5f);
         backgroundIsForCell = true;
+        invalidateBackground();
     }
 
 
@@ -421,6 +486,7 @@ public class World
         this.background = background;
         backgroundRect = new RectF(-0.5f, -0.5f, width - 0.5f, height - 0.5f);
         backgroundIsForCell = false;
+        invalidateBackground();
     }
 
 
@@ -464,13 +530,31 @@ public class World
      * <p>Objects of classes not listed will appear below the objects whose
      * classes have been specified.</p>
      *
+     * <p>If this world is not yet attached to a view, the paint order is
+     * remembered and applied when a view is attached.</p>
+     *
      * @param classes  The classes in desired paint order.
      */
     public void setPaintOrder(Class<? extends Actor> ... classes)
     {
-        failIfNotInView();
-        ((ShapeSet)view.getShapes()).setDrawingOrder(
-            new ZClassComparator((ShapeSet)view.getShapes(), true, classes));
+        // Rank every actor once, so sorting only compares stored ranks
+        ClassOrder order = new ClassOrder(true, classes);
+        synchronized (actorSetLock)
+        {
+            order.resolve(actors.classes());
+            for (Actor actor : actors)
+            {
+                actor.setPaintRank(order.rankOf(actor));
+            }
+            paintOrder = classes;
+            paintClassOrder = order;
+        }
+        if (view != null)
+        {
+            ((ShapeSet)view.getShapes()).setDrawingOrder(new ZClassComparator(
+                (ShapeSet)view.getShapes(), order));
+        }
+        repaintAll();
     }
 
 
@@ -492,11 +576,14 @@ public class World
      */
     public void setActOrder(Class<? extends Actor> ... classes)
     {
-        failIfNotInView();
-        // FIXME: This will totally break if called by an Actor from act()!
-        actSet = new java.util.TreeSet<Actor>(
-            new ZClassComparator((ShapeSet)view.getShapes(), false, classes));
-        actSet.addAll(view.getShapes(Actor.class));
+        // The new order takes effect at the start of the next step, when
+        // every actor is re-ranked in one pass and the act list re-sorted
+        ClassOrder order = new ClassOrder(false, classes);
+        synchronized (actorSetLock)
+        {
+            order.resolve(actors.classes());
+        }
+        actList.setOrder(order);
     }
 
 
@@ -507,7 +594,7 @@ public class World
      */
     public Set<Actor> getObjects()
     {
-        return view.getShapes(Actor.class);
+        return getObjects(null);
     }
 
 
@@ -525,17 +612,12 @@ public class World
     public <MyActor extends Actor> Set<MyActor> getObjects(
         Class<MyActor> cls)
     {
-        failIfNotInView();
-        if (cls == null)
-        {
-            @SuppressWarnings("unchecked")
-            Set<MyActor> result = (Set<MyActor>)view.getShapes(Actor.class);
-            return result;
-        }
-        else
+        Set<MyActor> result = new java.util.LinkedHashSet<MyActor>();
+        synchronized (actorSetLock)
         {
-            return view.getShapes(cls);
+            actors.collect(cls, result);
         }
+        return result;
     }
 
 
@@ -547,8 +629,31 @@ public class World
      */
     public int numberOfObjects()
     {
-        failIfNotInView();
-        return view.getShapes().size();
+        synchronized (actorSetLock)
+        {
+            return actors.size();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of actors of the specified type currently in the
+     * world.  This only looks at actors of the given class (and its
+     * subclasses), so it is cheap even when the world is full of other
+     * kinds of actors.
+     *
+     * @param cls Class of objects to count (passing 'null' will count all
+     *            objects).
+     * @return The number of actors of the specified type (or any of its
+     *         subtypes) in the world.
+     */
+    public int numberOfObjects(Class<? extends Actor> cls)
+    {
+        synchronized (actorSetLock)
+        {
+            return actors.count(cls);
+        }
     }
 
 
@@ -613,8 +718,23 @@ public class World
     public <MyActor extends Actor> Set<MyActor> getObjectsAt(
         float x, float y, Class<MyActor> cls)
     {
-        failIfNotInView();
-        return view.getShapesAt(x, y, cls);
+        Set<MyActor> result = new java.util.LinkedHashSet<MyActor>();
+        synchronized (actorSetLock)
+        {
+            if (cls != null && actors.count(cls) == 0)
+            {
+                // No need to look, since there are none anywhere
+                return result;
+            }
+            for (Actor actor : cells.itemsAt(cellOf(x), cellOf(y)))
+            {
+                if (isInstance(cls, actor) && containsPoint(actor, x, y))
+                {
+                    result.add(asInstance(cls, actor));
+                }
+            }
+        }
+        return result;
     }
 
 
@@ -720,6 +840,7 @@ public class World
             gridTransform.postScale(pixelsPerCell, pixelsPerCell);
             gridTransform.postTranslate(gridArea.left, gridArea.top);
         }
+        invalidateBackground();
     }
 
 
@@ -729,6 +850,10 @@ public class World
      * successive steps where act() is called on all Actors.  The speed
      * is a value between 0-100, where 100 is maximum speed (least delay)
      * and 0 is the slowest speed.
+     *
+     * <p>Setting the speed turns off any fixed step rate set using
+     * {@link #setStepsPerSecond(double)}.</p>
+     *
      * @param speed The new speed (0-100)
      */
     public void setSpeed(int speed)
@@ -761,258 +886,1097 @@ public class World
 
     // ----------------------------------------------------------
     /**
-     * Draws the world (as a background) on the canvas.  Does not draw
-     * the world's actors, which are drawn by the enclosing WorldView.
+     * Run this world at a fixed number of steps per second, instead of
+     * using the delay determined by {@link #setSpeed(int)}.  Steps are
+     * scheduled against a monotonic clock, so the time taken by each step
+     * is subtracted from the pause before the next one.  If steps take
+     * longer than the time allotted to them and the world falls behind,
+     * it runs several steps back-to-back (up to a small limit) to catch
+     * up, and drops any backlog beyond that limit rather than running
+     * in a burst.  Use {@link #getActualStepsPerSecond()} to see the rate
+     * actually being achieved.
      *
-     * @param canvas the Canvas on which to draw the world.
+     * @param stepsPerSecond The target number of steps per second, or
+     *                       zero to go back to using the speed setting.
      */
-    public void draw(Canvas canvas)
+    public void setStepsPerSecond(double stepsPerSecond)
     {
-//        {
-//            Paint paint = new Paint();
-//            paint.setStyle(Paint.Style.FILL_AND_STROKE);
-//            paint.setColor(android.graphics.Color.MAGENTA);
-//            canvas.drawRect(new android.graphics.Rect(0, 0, 200, 200), paint);
-//        }
-
-        if (backgroundColor != null)
+        if (stepsPerSecond < 0)
         {
-            Paint paint = new Paint();
-            paint.setStyle(Paint.Style.FILL_AND_STROKE);
-            paint.setColor(backgroundColor.toRawColor());
-            canvas.drawRect(grid, paint);
+            stepsPerSecond = 0;
         }
+        engine.setStepsPerSecond(stepsPerSecond);
+    }
 
-        if (background != null)
-        {
-            Bitmap bm = background.asBitmap();
-            if (bm == null)
-            {
-                background.resolveAgainstContext(view.getContext());
-                bm = background.asBitmap();
-                if (bm == null)
-                {
-                    background = null;
-                }
-            }
 
-            if (bm != null)
-            {
-                if (backgroundIsForCell)
-                {
-                    RectF dest = new RectF(backgroundRect);
+    // ----------------------------------------------------------
+    /**
+     * Get the fixed step rate of this world.
+     * @return The target number of steps per second, or zero if the world
+     *         is paced by its speed setting instead.
+     * @see #setStepsPerSecond(double)
+     */
+    public double getStepsPerSecond()
+    {
+        return engine.getStepsPerSecond();
+    }
 
-                    for (int x = 0; x < width; x++)
-                    {
-                        dest.top = backgroundRect.top;
-                        dest.bottom = backgroundRect.bottom;
-                        for (int y = 0; y < height; y++)
-                        {
-                            canvas.drawBitmap(bm, null, dest, null);
-                            dest.top++;
-                            dest.bottom++;
-                        }
-                        dest.left++;
-                        dest.right++;
-                    }
-                }
-                else
-                {
-                    canvas.drawBitmap(bm, null, backgroundRect, null);
-                }
-            }
-        }
 
-        if (gridColor != null)
-        {
-            Paint paint = new Paint();
-            paint.setColor(gridColor.toRawColor());
-            paint.setStrokeWidth(0);
-            float limit = height - 0.5f;
-            for (float x = -0.5f; x < width; x++)
-            {
-                canvas.drawLine(x, -0.5f, x, limit, paint);
-            }
-            limit = width - 0.5f;
-            for (float y = -0.5f; y < height; y++)
-            {
-                canvas.drawLine(-0.5f, y, limit, y, paint);
-            }
-        }
+    // ----------------------------------------------------------
+    /**
+     * Get the number of steps per second this world actually ran, as
+     * measured over the most recent second or so of running.
+     * @return The measured step rate, or zero if it has not yet been
+     *         measured.
+     */
+    public double getActualStepsPerSecond()
+    {
+        return engine.getActualStepsPerSecond();
     }
 
 
-    //~ Protected Methods .....................................................
-
     // ----------------------------------------------------------
     /**
-     * Return all the objects that intersect the given object. This takes the
-     * graphical extent of objects into consideration.
-     *
-     * @param actor An Actor in the world.
-     * @param cls Class of objects to look for (null or Object.class will find
-     *            all classes).
-     * @param <MyActor> The type of object to look for, as specified
-     *                  in the cls parameter.
-     * @return A set of objects that intersect the given object.
+     * Get how far the measured step rate is from the target set using
+     * {@link #setStepsPerSecond(double)}.
+     * @return The measured rate minus the target rate, in steps per
+     *         second (negative when the world is falling behind), or zero
+     *         if no fixed step rate is in effect.
      */
-    /* package */ <MyActor extends Actor> Set<MyActor> getIntersectingObjects(
-        Actor actor, Class<MyActor> cls)
+    public double getStepRateError()
     {
-        failIfNotInView();
-        return view.getIntersectingShapes(actor, cls);
+        double target = engine.getStepsPerSecond();
+        return (target == 0)
+            ? 0
+            : engine.getActualStepsPerSecond() - target;
     }
 
 
     // ----------------------------------------------------------
     /**
-     * Return one object that intersects the given object. This takes the
-     * graphical extent of objects into consideration.  Objects found can be
-     * restricted to a specific class (and its subclasses) by supplying the
-     * 'cls' parameter If more than one object of the specified class
-     * intersects the given actor, one of them will be chosen and returned.
+     * Limit how often the world's view is repainted while the world is
+     * running, independently of how fast the world steps.  By default
+     * (or with a limit of zero), the view is repainted after every step.
+     * With a limit, the world still steps as fast as its speed setting
+     * allows, but the view is only asked to repaint when at least
+     * 1/framesPerSecond of a second has passed since the last repaint,
+     * so that very fast runs are not held back by drawing.  The latest
+     * state is always repainted when the world stops.
      *
-     * @param actor An Actor in the world.
-     * @param cls Class of objects to look for (null or Object.class will find
-     *            all classes).
-     * @param <MyActor> The type of object to look for, as specified
-     *                  in the cls parameter.
-     * @return A set of objects that intersect the given object.
+     * @param framesPerSecond The maximum number of repaints per second
+     *                        (for example, 60), or zero to repaint after
+     *                        every step.
      */
-    /* package */ <MyActor extends Actor> MyActor getOneIntersectingObject(
-        Actor actor, Class<MyActor> cls)
+    public void setMaxFrameRate(int framesPerSecond)
     {
-        failIfNotInView();
-        return view.getIntersectingShape(actor, cls);
+        if (framesPerSecond < 0)
+        {
+            framesPerSecond = 0;
+        }
+        engine.setMaxFrameRate(framesPerSecond);
     }
 
 
     // ----------------------------------------------------------
     /**
-     * Returns all objects with the logical location within the specified
-     * circle. In other words an object A is within the range of an object B if
-     * the distance between the centre of the two objects is less than r.
-     *
-     * @param x Center of the circle.
-     * @param y Center of the circle.
-     * @param r Radius of the circle.
-     * @param cls Class of objects to look for (null or Object.class will find
-     *            all classes).
-     * @param <MyActor> The type of object to look for, as specified
-     *                  in the cls parameter.
-     * @return A set of objects that lie within the given circle.
+     * Get the maximum number of times per second the world's view will
+     * be repainted while the world is running.
+     * @return The maximum frame rate, or zero if the view is repainted
+     *         after every step.
+     * @see #setMaxFrameRate(int)
      */
-    /* package */ <MyActor extends Actor> Set<MyActor> getObjectsInRange(
-        float x, float y, float r, Class<MyActor> cls)
+    public int getMaxFrameRate()
     {
-        failIfNotInView();
-        return view.getShapesInRange(x, y, r, cls);
+        return engine.getMaxFrameRate();
     }
 
 
     // ----------------------------------------------------------
     /**
-     * Returns the neighbors to the given location. This method only looks at
-     * the logical location and not the extent of objects. Hence it is most
-     * useful in scenarios where objects only span one cell.
+     * Choose whether the world's view should redraw only the parts of the
+     * world that have changed.  When this is turned on, the world keeps
+     * track of the cells touched by actors that are added, removed, moved,
+     * resized, rotated, or given a new image.  Steps that change nothing
+     * do not repaint the view at all, and other repaints are clipped to
+     * the changed cells (over the cached background).  Since the view's
+     * surface is double-buffered, each repaint covers the cells changed
+     * since either of the two previous frames.
      *
-     * @param actor    The actor whose neighbors will be located.
-     * @param distance Distance in which to look for other objects.
-     * @param diag     Is the distance also diagonal?
-     * @param cls Class of objects to look for (null or Object.class will find
-     *            all classes).
-     * @param <MyActor> The type of object to look for, as specified
-     *                  in the cls parameter.
-     * @return A collection of all neighbors found.
+     * <p>Changes that the world cannot see, such as an actor changing its
+     * color, are not tracked; call {@link #repaintAll()} after making
+     * such changes.  This is off by default.</p>
+     *
+     * @param onlyChanges True to repaint only changed regions, or false
+     *                    to repaint the whole view on every frame.
      */
-    /* package */ <MyActor extends Actor> Set<MyActor> getNeighbors(
-        Actor actor, float distance, boolean diag, Class<MyActor> cls)
+    public void setRepaintOnlyChanges(boolean onlyChanges)
     {
-        failIfNotInView();
-        return view.getNeighbors(actor, distance, diag, cls);
+        synchronized (actorSetLock)
+        {
+            repaintOnlyChanges = onlyChanges;
+            allDirty = true;
+            previousAllDirty = true;
+            changeEpoch++;
+        }
     }
 
 
     // ----------------------------------------------------------
     /**
-     * Return all objects that intersect a straight line from the location at
-     * a specified angle. The angle is clockwise.
-     *
-     * @param x x-coordinate.
-     * @param y y-coordinate.
-     * @param angle The angle relative to current rotation of the object.
-     *            (0-359).
-     * @param length How far we want to look (in cells).
-     * @param cls Class of objects to look for (null or Object.class will find
-     *            all classes).
-     * @param <MyShape> The type of object to look for, as specified
-     *                  in the cls parameter.
-     * @return A collection of all objects found.
+     * Find out whether the world's view redraws only the parts of the
+     * world that have changed.
+     * @return True if only changed regions are repainted.
+     * @see #setRepaintOnlyChanges(boolean)
      */
-    /* package */ <MyShape extends Shape> Set<MyShape> getObjectsInDirection(
-        float x, float y, float angle, float length, Class<MyShape> cls)
+    public boolean repaintsOnlyChanges()
     {
-        failIfNotInView();
-        return view.getShapesInDirection(x, y, angle, length, cls);
+        return repaintOnlyChanges;
     }
 
 
     // ----------------------------------------------------------
     /**
-     * Return one object that is located at the specified cell. Objects found
-     * can be restricted to a specific class (and its subclasses) by supplying
-     * the 'cls' parameter.  If more than one object of the specified class
-     * resides at that location, one of them will be chosen and returned.
-     *
-     * @param x   X-coordinate.
-     * @param y   Y-coordinate.
-     * @param cls Class of objects to look for (passing 'null' will find all
-     *            objects).
-     * @param <MyActor> The type of actor to look for, as specified
-     *                  in the cls parameter.
-     * @return An object at the given location, or null if none found.
+     * Mark the entire world as changed, so that the next frame redraws
+     * everything.  This is only needed when
+     * {@link #setRepaintOnlyChanges(boolean)} is turned on and something
+     * has changed that the world cannot track on its own.
      */
-    /* package */ <MyActor extends Actor> MyActor getOneObjectAt(
-        float x, float y, Class<MyActor> cls)
+    public void repaintAll()
     {
-        failIfNotInView();
-        return view.getShapeAt(x, y, cls);
+        synchronized (actorSetLock)
+        {
+            allDirty = true;
+            changeEpoch++;
+        }
     }
 
 
     // ----------------------------------------------------------
-    /* package */ void setWorldView(WorldView view)
+    /**
+     * Call act() on this world's actors using several threads at once.
+     * This is equivalent to calling {@link #setParallelAct(int, int)}
+     * with an interaction range of one cell.
+     *
+     * @param threads The number of threads to use, or 1 (the default) to
+     *                call act() on one actor at a time.
+     */
+    public void setParallelAct(int threads)
     {
-        this.view = view;
-
-        // force setOrientation() to take effect here
-        setOrientation(orientation);
+        setParallelAct(threads, 1);
+    }
 
-        // force setScaledCellSize() to take effect here
-        setScaledCellSize(scaledCellSize, scaleToFit);
-        if (deferredRemoves == null)
-        {
-            deferredRemoves = new java.util.TreeSet<Actor>(
-                new ShapeSet.ZIndexComparator((ShapeSet)view.getShapes()));
-        }
 
-        if (view != null && !isRunning())
+    // ----------------------------------------------------------
+    /**
+     * Call act() on this world's actors using several threads at once.
+     * The grid is split into horizontal stripes, and each actor belongs
+     * to the stripe containing its location at the start of the step.
+     * Every step runs the even-numbered stripes concurrently, and then the
+     * odd-numbered ones, so no two adjacent stripes are ever acting at the
+     * same time.  Within a stripe, actors act one at a time in the
+     * world's act order.
+     *
+     * <p>Stripes are made at least twice as tall as the given interaction
+     * range, so as long as each actor only looks at and changes things
+     * within that many cells of itself, actors acting at the same time
+     * cannot affect each other.  While stripes are acting, calls to
+     * {@link #add(Actor)} and {@link #remove(Actor)}, and moves that take
+     * an actor out of its stripe, are recorded rather than applied, and
+     * then applied in stripe order at the end of the act phase, so the
+     * outcome of a step does not depend on thread timing.  Changes made
+     * from other threads (such as the program threads of programmable
+     * actors) are applied immediately, as usual.</p>
+     *
+     * <p>This is meant for large simulations, especially ones run without
+     * a view, and is off by default.</p>
+     *
+     * @param threads          The number of threads to use, or 1 (the
+     *                         default) to call act() on one actor at a
+     *                         time.
+     * @param interactionRange How far (in cells) actors look or reach
+     *                         from their own locations.
+     */
+    public void setParallelAct(int threads, int interactionRange)
+    {
+        if (threads < 1)
+        {
+            threads = 1;
+        }
+        if (interactionRange < 1)
+        {
+            interactionRange = 1;
+        }
+        synchronized (actorSetLock)
+        {
+            if (actPool != null && threads != actThreads)
+            {
+                actPool.shutdown();
+                actPool = null;
+            }
+            this.actThreads = threads;
+            this.interactionRange = interactionRange;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of threads used to call act() on this world's
+     * actors.
+     * @return The number of threads (1 if actors act one at a time).
+     * @see #setParallelAct(int, int)
+     */
+    public int getParallelActThreads()
+    {
+        return actThreads;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Choose whether each step reads the state of the world as it was
+     * when the step began.  Normally, an actor that acts later in a step
+     * sees any changes made by actors that acted before it, so the outcome
+     * of a step can depend on the act order.  In a double-buffered world,
+     * all queries made while the world and its actors act (such as
+     * {@link #getObjectsAt(float, float, Class)} or an actor's
+     * {@code getIntersectingObjects()}) see the positions, sizes, and
+     * set of actors from the start of the step.  Moves, adds, and removes
+     * made during the step take effect together when it ends, in the
+     * order they were made, so every actor in a step sees the same world.
+     * This also makes it safe to combine with
+     * {@link #setParallelAct(int, int)}.
+     *
+     * <p>An actor's own getters (such as {@code getGridX()}) always report
+     * its current state, and an actor added or removed during a step only
+     * joins or leaves the world when the step ends.  This is off by
+     * default.</p>
+     *
+     * @param doubleBuffered True to read the previous step's state during
+     *                       each step, or false to see changes immediately.
+     */
+    public void setDoubleBuffered(boolean doubleBuffered)
+    {
+        this.doubleBuffered = doubleBuffered;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Find out whether each step reads the state of the world as it was
+     * when the step began.
+     * @return True if this world is double-buffered.
+     * @see #setDoubleBuffered(boolean)
+     */
+    public boolean isDoubleBuffered()
+    {
+        return doubleBuffered;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Set whether the programs of this world's programmable actors (and
+     * of the world itself, if it is programmable) run on virtual threads.
+     * Each program normally has a platform thread of its own, with its
+     * own operating system thread and stack, which limits a world to a
+     * few hundred programmed actors.  Virtual threads are much cheaper,
+     * so a world can hold thousands of them, and they start more quickly.
+     * Programs behave the same way either way.
+     *
+     * <p>This only affects programs started after it is called (a
+     * programmable world's own program starts at its first step).  Virtual
+     * threads need Java 21 or later; where they are not available (such
+     * as on Android), platform threads are used anyway.  This is off by
+     * default.</p>
+     *
+     * @param virtualPrograms True to run programs on virtual threads.
+     */
+    public void setVirtualProgramThreads(boolean virtualPrograms)
+    {
+        this.virtualPrograms = virtualPrograms;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Find out whether new programs in this world run on virtual threads.
+     * @return True if they do (where virtual threads are available).
+     * @see #setVirtualProgramThreads(boolean)
+     */
+    public boolean usesVirtualProgramThreads()
+    {
+        return virtualPrograms && ProgramThread.isVirtualAvailable();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Set whether the programs of this world's programmable actors (and
+     * of the world itself, if it is programmable) run threadless.  A
+     * threadless program has no thread of its own: when its actor acts,
+     * its next action runs right there on the world's engine thread, and
+     * the program suspends itself at the end of the action.  This makes
+     * each program step about as cheap as a method call, and the step
+     * always waits for the action, as with
+     * {@link ProgramHandoff#LOCKSTEP}.  Student programs do not need to
+     * change.
+     *
+     * <p>This only affects programs started after it is called, and takes
+     * precedence over {@link #setVirtualProgramThreads(boolean)}.  It
+     * relies on the JVM's own continuations, which need Java 21 or later,
+     * started with
+     * {@code --add-exports java.base/jdk.internal.vm=ALL-UNNAMED}.
+     * Elsewhere (such as on Android), programs get threads anyway.  A
+     * threadless program cannot end an action while it holds a monitor
+     * (inside a {@code synchronized} block).  This is off by default.</p>
+     *
+     * @param threadless True to run programs threadless.
+     */
+    public void setThreadlessPrograms(boolean threadless)
+    {
+        threadlessPrograms = threadless;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Find out whether new programs in this world run threadless.
+     * @return True if they do (where threadless programs are available).
+     * @see #setThreadlessPrograms(boolean)
+     */
+    public boolean usesThreadlessPrograms()
+    {
+        return threadlessPrograms && ProgramThread.isThreadlessAvailable();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Set the stack size of the threads that run the programs of this
+     * world's programmable actors (and of the world itself, if it is
+     * programmable).  A smaller stack lets more programs fit in memory,
+     * while a larger one allows deeper recursion in a program.  The JVM
+     * may round the size, or ignore it altogether (see
+     * {@link Thread#Thread(ThreadGroup, Runnable, String, long)}).  This
+     * only affects programs started after it is called, and does not
+     * apply to {@link #setVirtualProgramThreads(boolean) virtual threads}.
+     *
+     * @param bytes The stack size in bytes, or zero (the default) for the
+     *              JVM's default stack size.
+     */
+    public void setProgramStackSize(long bytes)
+    {
+        if (bytes < 0)
+        {
+            throw new IllegalArgumentException(
+                "The stack size cannot be negative.");
+        }
+        programStackSize = bytes;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the stack size of the threads that run new programs in this
+     * world.
+     * @return The stack size in bytes, or zero for the JVM's default.
+     * @see #setProgramStackSize(long)
+     */
+    public long getProgramStackSize()
+    {
+        return programStackSize;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Set how this world hands control to programs during each step.  By
+     * default, programs are {@link ProgramHandoff#CONCURRENT}: each
+     * program is resumed and left to carry out its next action while the
+     * rest of the step goes on, so a program's action can overlap other
+     * actors' {@code act()} calls and the repaint.  With
+     * {@link ProgramHandoff#LOCKSTEP}, the step waits for each program's
+     * action to finish before going on, which removes those races (and
+     * lets a {@link StepProfiler} time each action).  With
+     * {@link ProgramHandoff#BARRIER}, programs still run their actions at
+     * the same time, but the step waits for all of them before it ends.
+     *
+     * <p>A step never waits more than a few seconds for a program whose
+     * action does not finish; after that, the program is left running on
+     * its own.</p>
+     *
+     * @param handoff The way to hand control to programs.
+     */
+    public void setProgramHandoff(ProgramHandoff handoff)
+    {
+        if (handoff == null)
+        {
+            throw new IllegalArgumentException(
+                "The program handoff cannot be null.");
+        }
+        programHandoff = handoff;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get how this world hands control to programs during each step.
+     * @return The program handoff.
+     * @see #setProgramHandoff(ProgramHandoff)
+     */
+    public ProgramHandoff getProgramHandoff()
+    {
+        return programHandoff;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Set the clock this world uses to time its steps.  Worlds normally
+     * use {@link Clock#SYSTEM}, which runs in real time.  Tests can use a
+     * {@link VirtualClock} instead, which runs the world's steps on the
+     * test's own thread, without waiting between them, as the clock is
+     * advanced.  The clock can only be changed while the world is
+     * stopped.
+     *
+     * @param clock The new clock.
+     * @throws IllegalStateException if the world is running.
+     */
+    public void setClock(Clock clock)
+    {
+        if (clock == null)
+        {
+            throw new IllegalArgumentException("The clock cannot be null.");
+        }
+        engine.setClock(clock);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the clock this world uses to time its steps.
+     * @return The world's clock.
+     * @see #setClock(Clock)
+     */
+    public Clock getClock()
+    {
+        return clock;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Measure how long each part of this world's steps takes, such as
+     * the act() methods of its actors (by class) and repainting, to find
+     * out why a world runs slowly.  This is off by default, and costs
+     * nothing when off.
+     *
+     * @param profiler The profiler that will collect the measurements, or
+     *                 null to stop profiling.
+     * @see StepProfiler
+     */
+    public void setProfiler(StepProfiler profiler)
+    {
+        this.profiler = profiler;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the profiler measuring this world's steps.
+     * @return The profiler, or null if the world is not being profiled.
+     * @see #setProfiler(StepProfiler)
+     */
+    public StepProfiler getProfiler()
+    {
+        return profiler;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Set whether this world records what its engine does (requests,
+     * steps, and scheduled delays), so that the most recent events can be
+     * retrieved with {@link #getEngineTrace()}.  Events are recorded in a
+     * ring buffer of the last few thousand, which is allocated when
+     * tracing is turned on and freed when it is turned off; recording an
+     * event allocates nothing.  This is off by default.
+     *
+     * @param tracing True to record engine events.
+     */
+    public void setEngineTracing(boolean tracing)
+    {
+        trace.setEnabled(tracing);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determine whether this world records what its engine does.
+     * @return True if engine events are being recorded.
+     * @see #setEngineTracing(boolean)
+     */
+    public boolean isEngineTracing()
+    {
+        return trace.isEnabled();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get a record of the most recent things this world's engine has
+     * done (the last few thousand requests, steps, and scheduled delays),
+     * for diagnosing a problem such as an exception in act() or a failed
+     * test.  Events are only recorded while
+     * {@link #setEngineTracing(boolean) tracing} is on.
+     *
+     * @return The recent engine events, oldest first, one per line, or
+     *         an empty string if tracing is off.
+     */
+    public String getEngineTrace()
+    {
+        return trace.toString();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Draws the world (as a background) on the canvas.  Does not draw
+     * the world's actors, which are drawn by the enclosing WorldView.
+     *
+     * <p>The background color, background image, and grid lines are
+     * rendered once into an offscreen bitmap at the current cell size,
+     * and that bitmap is reused on every frame until one of them (or the
+     * cell size) changes.</p>
+     *
+     * @param canvas the Canvas on which to draw the world.
+     */
+    public void draw(Canvas canvas)
+    {
+        if (backgroundCacheIsStale)
+        {
+            backgroundCacheIsStale = false;
+            if (backgroundCache != null)
+            {
+                backgroundCache.recycle();
+                backgroundCache = null;
+            }
+            backgroundCache = renderBackground();
+            if (backgroundCache != null)
+            {
+                backgroundCacheRect = new RectF(-0.5f, -0.5f,
+                    backgroundCache.getWidth() / pixelsPerCell - 0.5f,
+                    backgroundCache.getHeight() / pixelsPerCell - 0.5f);
+            }
+        }
+
+        if (backgroundCache != null)
+        {
+            canvas.drawBitmap(backgroundCache, null, backgroundCacheRect, null);
+        }
+        else
+        {
+            drawBackground(canvas);
+        }
+    }
+
+
+    //~ Protected Methods .....................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Return all the objects that intersect the given object. This takes the
+     * graphical extent of objects into consideration.
+     *
+     * @param actor An Actor in the world.
+     * @param cls Class of objects to look for (null or Object.class will find
+     *            all classes).
+     * @param <MyActor> The type of object to look for, as specified
+     *                  in the cls parameter.
+     * @return A set of objects that intersect the given object.
+     */
+    /* package */ <MyActor extends Actor> Set<MyActor> getIntersectingObjects(
+        Actor actor, Class<MyActor> cls)
+    {
+        Set<MyActor> result = new java.util.LinkedHashSet<MyActor>();
+        synchronized (actorSetLock)
+        {
+            RectF bounds = boundsOf(actor);
+            int bottom = clipRow(lastCellOf(bounds.bottom));
+            int right = clipColumn(lastCellOf(bounds.right));
+            for (int y = clipRow(cellOf(bounds.top)); y <= bottom; y++)
+            {
+                for (int x = clipColumn(cellOf(bounds.left)); x <= right; x++)
+                {
+                    for (Actor other : cells.itemsAt(x, y))
+                    {
+                        if (other != actor
+                            && isInstance(cls, other)
+                            && RectF.intersects(bounds, boundsOf(other)))
+                        {
+                            result.add(asInstance(cls, other));
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Return one object that intersects the given object. This takes the
+     * graphical extent of objects into consideration.  Objects found can be
+     * restricted to a specific class (and its subclasses) by supplying the
+     * 'cls' parameter If more than one object of the specified class
+     * intersects the given actor, one of them will be chosen and returned.
+     *
+     * @param actor An Actor in the world.
+     * @param cls Class of objects to look for (null or Object.class will find
+     *            all classes).
+     * @param <MyActor> The type of object to look for, as specified
+     *                  in the cls parameter.
+     * @return A set of objects that intersect the given object.
+     */
+    /* package */ <MyActor extends Actor> MyActor getOneIntersectingObject(
+        Actor actor, Class<MyActor> cls)
+    {
+        synchronized (actorSetLock)
+        {
+            RectF bounds = boundsOf(actor);
+            int bottom = clipRow(lastCellOf(bounds.bottom));
+            int right = clipColumn(lastCellOf(bounds.right));
+            for (int y = clipRow(cellOf(bounds.top)); y <= bottom; y++)
+            {
+                for (int x = clipColumn(cellOf(bounds.left)); x <= right; x++)
+                {
+                    for (Actor other : cells.itemsAt(x, y))
+                    {
+                        if (other != actor
+                            && isInstance(cls, other)
+                            && RectF.intersects(bounds, boundsOf(other)))
+                        {
+                            return asInstance(cls, other);
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Returns all objects with the logical location within the specified
+     * circle. In other words an object A is within the range of an object B if
+     * the distance between the centre of the two objects is less than r.
+     *
+     * @param x Center of the circle.
+     * @param y Center of the circle.
+     * @param r Radius of the circle.
+     * @param cls Class of objects to look for (null or Object.class will find
+     *            all classes).
+     * @param <MyActor> The type of object to look for, as specified
+     *                  in the cls parameter.
+     * @return A set of objects that lie within the given circle.
+     */
+    /* package */ <MyActor extends Actor> Set<MyActor> getObjectsInRange(
+        float x, float y, float r, Class<MyActor> cls)
+    {
+        Set<MyActor> result = new java.util.LinkedHashSet<MyActor>();
+        float rSquared = r * r;
+        int bottom = clipRow(cellOf(y + r));
+        int right = clipColumn(cellOf(x + r));
+        synchronized (actorSetLock)
+        {
+            for (int row = clipRow(cellOf(y - r)); row <= bottom; row++)
+            {
+                for (int col = clipColumn(cellOf(x - r)); col <= right; col++)
+                {
+                    for (Actor actor : cells.itemsAt(col, row))
+                    {
+                        float dx = xOf(actor) - x;
+                        float dy = yOf(actor) - y;
+                        if (isInstance(cls, actor)
+                            && dx * dx + dy * dy <= rSquared)
+                        {
+                            result.add(asInstance(cls, actor));
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Returns the neighbors to the given location. This method only looks at
+     * the logical location and not the extent of objects. Hence it is most
+     * useful in scenarios where objects only span one cell.
+     *
+     * @param actor    The actor whose neighbors will be located.
+     * @param distance Distance in which to look for other objects.
+     * @param diag     Is the distance also diagonal?
+     * @param cls Class of objects to look for (null or Object.class will find
+     *            all classes).
+     * @param <MyActor> The type of object to look for, as specified
+     *                  in the cls parameter.
+     * @return A collection of all neighbors found.
+     */
+    /* package */ <MyActor extends Actor> Set<MyActor> getNeighbors(
+        Actor actor, float distance, boolean diag, Class<MyActor> cls)
+    {
+        Set<MyActor> result = new java.util.LinkedHashSet<MyActor>();
+        int d = (int)distance;
+        synchronized (actorSetLock)
+        {
+            int x = Math.round(xOf(actor));
+            int y = Math.round(yOf(actor));
+            int bottom = clipRow(y + d);
+            int right = clipColumn(x + d);
+            for (int row = clipRow(y - d); row <= bottom; row++)
+            {
+                for (int col = clipColumn(x - d); col <= right; col++)
+                {
+                    for (Actor other : cells.itemsAt(col, row))
+                    {
+                        if (isInstance(cls, other)
+                            && isNeighbor(x, y, other, distance, diag))
+                        {
+                            result.add(asInstance(cls, other));
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Return all objects that intersect a straight line from the location at
+     * a specified angle. The angle is clockwise.
+     *
+     * @param x x-coordinate.
+     * @param y y-coordinate.
+     * @param angle The angle relative to current rotation of the object.
+     *            (0-359).
+     * @param length How far we want to look (in cells).
+     * @param cls Class of objects to look for (null or Object.class will find
+     *            all classes).
+     * @param <MyShape> The type of object to look for, as specified
+     *                  in the cls parameter.
+     * @return A collection of all objects found.
+     */
+    /* package */ <MyShape extends Shape> Set<MyShape> getObjectsInDirection(
+        float x, float y, float angle, float length, Class<MyShape> cls)
+    {
+        Set<MyShape> result = new java.util.LinkedHashSet<MyShape>();
+        double radians = Math.toRadians(angle);
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        float endX = (float)(x + cos * length);
+        float endY = (float)(y + sin * length);
+        int bottom = clipRow(cellOf(Math.max(y, endY)) + 1);
+        int right = clipColumn(cellOf(Math.max(x, endX)) + 1);
+        synchronized (actorSetLock)
+        {
+            for (int row = clipRow(cellOf(Math.min(y, endY)) - 1);
+                row <= bottom; row++)
+            {
+                for (int col = clipColumn(cellOf(Math.min(x, endX)) - 1);
+                    col <= right; col++)
+                {
+                    for (Actor actor : cells.itemsAt(col, row))
+                    {
+                        if (cls != null && !cls.isInstance(actor))
+                        {
+                            continue;
+                        }
+                        double dx = xOf(actor) - x;
+                        double dy = yOf(actor) - y;
+                        // Distance along the line, and distance away from it
+                        double along = dx * cos + dy * sin;
+                        double across = Math.abs(dy * cos - dx * sin);
+                        if (along >= 0 && along <= length && across <= 0.5)
+                        {
+                            @SuppressWarnings("unchecked")
+                            MyShape shape = (MyShape)actor;
+                            result.add(shape);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Return one object that is located at the specified cell. Objects found
+     * can be restricted to a specific class (and its subclasses) by supplying
+     * the 'cls' parameter.  If more than one object of the specified class
+     * resides at that location, one of them will be chosen and returned.
+     *
+     * @param x   X-coordinate.
+     * @param y   Y-coordinate.
+     * @param cls Class of objects to look for (passing 'null' will find all
+     *            objects).
+     * @param <MyActor> The type of actor to look for, as specified
+     *                  in the cls parameter.
+     * @return An object at the given location, or null if none found.
+     */
+    /* package */ <MyActor extends Actor> MyActor getOneObjectAt(
+        float x, float y, Class<MyActor> cls)
+    {
+        synchronized (actorSetLock)
+        {
+            if (cls != null && actors.count(cls) == 0)
+            {
+                return null;
+            }
+            for (Actor actor : cells.itemsAt(cellOf(x), cellOf(y)))
+            {
+                if (isInstance(cls, actor) && containsPoint(actor, x, y))
+                {
+                    return asInstance(cls, actor);
+                }
+            }
+        }
+        return null;
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ void setWorldView(WorldView view)
+    {
+        this.view = view;
+
+        // force setOrientation() to take effect here
+        setOrientation(orientation);
+
+        // force setScaledCellSize() to take effect here
+        setScaledCellSize(scaledCellSize, scaleToFit);
+
+        if (view != null)
+        {
+            // Hand over any actors added while this world was headless
+            synchronized (actorSetLock)
+            {
+                for (Actor actor : actors)
+                {
+                    view.add((Shape)actor);
+                    actor.scaleImageForWorldIfNecessary();
+                }
+            }
+            if (paintOrder != null)
+            {
+                setPaintOrder(paintOrder);
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Called by an actor in this world whenever its position, size, or
+     * rotation changes, so that the world's cell index can be updated.
+     * @param actor The actor that moved.
+     */
+    /* package */ void actorMoved(Actor actor)
+    {
+        Stripe stripe = currentStripe.get();
+        if (stripe != null && !stripe.holds(actor))
         {
-            synchronized (deferredAdds)
+            // Moves across stripes are committed at the end of the step
+            stripe.defer(PendingChange.MOVE, actor);
+            return;
+        }
+
+        synchronized (actorSetLock)
+        {
+            if (readingSnapshot)
+            {
+                // The cell index is updated when the step ends
+                if (!frozenGeometry.containsKey(actor)
+                    && actors.contains(actor))
+                {
+                    movedInSnapshot.add(actor);
+                }
+                return;
+            }
+            if (actors.contains(actor))
+            {
+                if (repaintOnlyChanges && cells.getRange(actor, movedRange))
+                {
+                    markDirty(movedRange);
+                }
+                updateCellIndex(actor);
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Called by an actor in this world just before its position, size,
+     * rotation, or image changes.  During a double-buffered step, this
+     * saves the actor's geometry the first time it changes, so queries
+     * continue to see where it was at the start of the step.
+     * @param actor The actor that is about to move.
+     */
+    /* package */ void actorWillMove(Actor actor)
+    {
+        synchronized (actorSetLock)
+        {
+            if (readingSnapshot
+                && !frozenGeometry.containsKey(actor)
+                && actors.contains(actor))
+            {
+                frozenGeometry.put(actor, new FrozenGeometry(actor));
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Mark the cached background layer as out of date, so that it will be
+     * rendered again the next time the world is drawn.
+     */
+    private void invalidateBackground()
+    {
+        backgroundCacheIsStale = true;
+        repaintAll();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Render the world's background layer into a new bitmap sized for
+     * the current cell size, one pixel wider and taller than the grid so
+     * that the right and bottom grid lines fit.
+     * @return The rendered bitmap, or null if there is nothing to draw or
+     *         the bitmap could not be created.
+     */
+    private Bitmap renderBackground()
+    {
+        float scale = pixelsPerCell;
+        if (scale <= 0 || view == null
+            || (backgroundColor == null && background == null
+                && gridColor == null))
+        {
+            return null;
+        }
+
+        Bitmap result;
+        try
+        {
+            result = Bitmap.createBitmap(
+                (int)Math.ceil(width * scale) + 1,
+                (int)Math.ceil(height * scale) + 1,
+                Bitmap.Config.ARGB_8888);
+        }
+        catch (OutOfMemoryError e)
+        {
+            // Fall back to drawing the background directly on each frame
+            return null;
+        }
+        if (result == null)
+        {
+            return null;
+        }
+
+        Canvas canvas = new Canvas(result);
+        canvas.scale(scale, scale);
+        canvas.translate(0.5f, 0.5f);
+        drawBackground(canvas);
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Draw the world's background color, background image, and grid
+     * lines onto a canvas that uses grid coordinates.
+     */
+    private void drawBackground(Canvas canvas)
+    {
+        if (backgroundColor != null)
+        {
+            if (backgroundPaint == null)
+            {
+                backgroundPaint = new Paint();
+                backgroundPaint.setStyle(Paint.Style.FILL_AND_STROKE);
+            }
+            backgroundPaint.setColor(backgroundColor.toRawColor());
+            canvas.drawRect(grid, backgroundPaint);
+        }
+
+        if (background != null)
+        {
+            Bitmap bm = background.asBitmap();
+            if (bm == null)
             {
-                for (Actor actor : deferredAdds)
+                background.resolveAgainstContext(view.getContext());
+                bm = background.asBitmap();
+                if (bm == null)
                 {
-                    add(actor);
+                    background = null;
                 }
-                deferredAdds.clear();
             }
-            synchronized (deferredRemoves)
+
+            if (bm != null)
             {
-                for (Actor actor : deferredRemoves)
+                if (backgroundIsForCell)
+                {
+                    RectF dest = new RectF(backgroundRect);
+
+                    for (int x = 0; x < width; x++)
+                    {
+                        dest.top = backgroundRect.top;
+                        dest.bottom = backgroundRect.bottom;
+                        for (int y = 0; y < height; y++)
+                        {
+                            canvas.drawBitmap(bm, null, dest, null);
+                            dest.top++;
+                            dest.bottom++;
+                        }
+                        dest.left++;
+                        dest.right++;
+                    }
+                }
+                else
                 {
-                    remove(actor);
+                    canvas.drawBitmap(bm, null, backgroundRect, null);
                 }
-                deferredRemoves.clear();
+            }
+        }
+
+        if (gridColor != null)
+        {
+            if (gridPaint == null)
+            {
+                gridPaint = new Paint();
+                gridPaint.setStrokeWidth(0);
+            }
+            gridPaint.setColor(gridColor.toRawColor());
+            float limit = height - 0.5f;
+            for (float x = -0.5f; x < width; x++)
+            {
+                canvas.drawLine(x, -0.5f, x, limit, gridPaint);
+            }
+            limit = width - 0.5f;
+            for (float y = -0.5f; y < height; y++)
+            {
+                canvas.drawLine(-0.5f, y, limit, y, gridPaint);
             }
         }
     }
@@ -1037,104 +2001,515 @@ public class World
 
 
     // ----------------------------------------------------------
-    /* package */ RectF scaleRawPixels(int width, int height)
+    /**
+     * Called by the view at the start of each frame to find out which
+     * part of the world needs to be redrawn.  The region returned covers
+     * everything changed since either of the two previous frames, and
+     * the changes recorded so far are then considered drawn.
+     * @param into A rectangle that is filled in with the region to redraw
+     *             (in grid coordinates), if only part of the world needs
+     *             redrawing.
+     * @return True if only the region in {@code into} needs redrawing,
+     *         or false if the whole view should be redrawn.
+     */
+    /* package */ boolean getDirtyRegion(RectF into)
+    {
+        synchronized (actorSetLock)
+        {
+            boolean partial = repaintOnlyChanges
+                && !allDirty && !previousAllDirty;
+            if (partial)
+            {
+                into.setEmpty();
+                addCellsTo(into, dirtyCells);
+                addCellsTo(into, previousDirtyCells);
+            }
+
+            System.arraycopy(dirtyCells, 0, previousDirtyCells, 0, 4);
+            dirtyCells[0] = 0;
+            dirtyCells[1] = 0;
+            dirtyCells[2] = -1;
+            dirtyCells[3] = -1;
+            previousAllDirty = allDirty;
+            allDirty = false;
+            return partial;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ RectF scaleRawPixels(int width, int height)
+    {
+        float scaleFactor = pixelsPerCell;
+        if (scaledCellSize != 0)
+        {
+            scaleFactor = scaledCellSize;
+        }
+        return new RectF(0.0f, 0.0f,
+            width / scaleFactor,
+            height / scaleFactor);
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ boolean isRunning()
+    {
+        return engine.isRunning();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Start (or run, or resume) the world.  The world does not need to be
+     * attached to a view, so headless worlds can be run as well.
+     */
+    public void start()
+    {
+        engine.startRunning();
+        clock.runDueTasks();
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ void runOneStep()
+    {
+        engine.requestOneStep();
+        clock.runDueTasks();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Stop (or pause running of) the world.
+     */
+    public void stop()
+    {
+        engine.stopRunning();
+        clock.runDueTasks();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Release the resources held by this world once it is no longer
+     * needed: its engine stops for good (without calling
+     * {@link #stopped()}), the programs of any programmable actors in it
+     * are ended, any threads used for {@link #setParallelAct(int, int)}
+     * are shut down, and its cached background bitmap is released.  A
+     * world cannot be started again after it has been disposed.
+     *
+     * <p>Worlds do not hold a thread while they are stopped, so this is
+     * not required, but it is a good idea when creating many worlds (for
+     * example, in tests) that have programmable actors.</p>
+     */
+    public void dispose()
+    {
+        engine.dispose();
+
+        List<Actor> programmable = new java.util.ArrayList<Actor>();
+        synchronized (actorSetLock)
+        {
+            actors.collect(ProgrammableActor.class, programmable);
+            if (actPool != null)
+            {
+                actPool.shutdown();
+                actPool = null;
+            }
+        }
+        for (Actor actor : programmable)
+        {
+            ((ProgrammableActor)actor).stopProgram();
+        }
+
+        // The cache is normally only touched by draw(), but once disposed
+        // this world should not be drawn any more
+        Bitmap cache = backgroundCache;
+        backgroundCache = null;
+        backgroundCacheIsStale = true;
+        if (cache != null)
+        {
+            cache.recycle();
+        }
+
+        context.forgetMostRecentlyCreated(this);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Run one step of this world directly on the calling thread, rather
+     * than on the engine's schedule.  While the step runs, each program
+     * that is resumed is waited for until it finishes its atomic action,
+     * so the step is complete (programs included) when this returns.
+     * Like {@link #runOneStep()}, this does not call {@link #started()}
+     * or {@link #stopped()}.
+     *
+     * @throws IllegalStateException if the world is running.
+     */
+    /* package */ void stepNow()
+    {
+        engine.stepNow();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a thread to run a program in this world, running it
+     * threadless or on a virtual thread if
+     * {@link #setThreadlessPrograms(boolean)} or
+     * {@link #setVirtualProgramThreads(boolean)} asks for it, and otherwise
+     * with the {@link #setProgramStackSize(long) stack size} set for this
+     * world.
+     * @param namedAfter The actor or world the program controls.
+     * @param program    The program.
+     * @return The new (unstarted) thread.
+     */
+    /* package */ ProgramThread newProgramThread(
+        Object namedAfter, Program program)
+    {
+        int kind = ProgramThread.PLATFORM;
+        if (threadlessPrograms)
+        {
+            kind = ProgramThread.THREADLESS;
+        }
+        else if (virtualPrograms)
+        {
+            kind = ProgramThread.VIRTUAL;
+        }
+        return new ProgramThread(namedAfter, program, kind, programStackSize);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Resume a program as part of a step, as the world's
+     * {@link #setProgramHandoff(ProgramHandoff) program handoff} says.
+     * Within {@link #stepNow()}, this always waits for the program to
+     * finish its next atomic action.
+     * @param thread The program's thread.
+     */
+    /* package */ void resumeProgram(ProgramThread thread)
+    {
+        ProgramHandoff handoff =
+            waitForPrograms ? ProgramHandoff.LOCKSTEP : programHandoff;
+        if (handoff == ProgramHandoff.LOCKSTEP)
+        {
+            StepProfiler profiler = this.profiler;
+            long start = (profiler == null) ? 0 : System.nanoTime();
+            thread.resumeProgramAndWait(PROGRAM_ACTION_TIMEOUT);
+            if (profiler != null)
+            {
+                profiler.recordProgramAction(System.nanoTime() - start);
+            }
+        }
+        else
+        {
+            thread.resumeProgram();
+            if (handoff == ProgramHandoff.BARRIER)
+            {
+                resumedPrograms.add(thread);
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Wait for every program resumed so far in this step with
+     * {@link ProgramHandoff#BARRIER} to finish its action.  Called on the
+     * engine thread once all of the actors have acted.
+     */
+    private void awaitResumedPrograms()
+    {
+        long deadline = System.nanoTime() + PROGRAM_ACTION_TIMEOUT;
+        ProgramThread thread;
+        while ((thread = resumedPrograms.poll()) != null)
+        {
+            thread.awaitActions(Math.max(0, deadline - System.nanoTime()));
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ void temporarilyPauseRunning()
+    {
+        engine.temporarilyPauseRunning();
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ void resumeRunningIfNecessary()
+    {
+        engine.resumeRunningIfNecessary();
+        clock.runDueTasks();
+    }
+
+
+    // ----------------------------------------------------------
+    /* package */ World getMostRecentlyCreated()
+    {
+        return context.getMostRecentlyCreated();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of steps this world has taken so far.
+     * @return The number of steps taken.
+     */
+    /* package */ long getStepCount()
+    {
+        return stepCount;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determine whether any program in this world is still running,
+     * that is, whether any programmable actor in it has a program that
+     * has not yet finished.
+     * @return True if a program is still running.
+     */
+    /* package */ boolean hasRunningPrograms()
+    {
+        List<Actor> programmable = new java.util.ArrayList<Actor>();
+        synchronized (actorSetLock)
+        {
+            actors.collect(ProgrammableActor.class, programmable);
+        }
+        for (Actor actor : programmable)
+        {
+            if (((ProgrammableActor)actor).isProgramRunning())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Record the range of cells covered by an actor in the cell index.
+     * This is every cell that the actor's bounding box overlaps, plus the
+     * cell containing its logical location.  For a rotated actor, the
+     * range is widened to cover any rotation around either its center or
+     * its position.  Must be called while holding the actor set lock.
+     */
+    private void updateCellIndex(Actor actor)
+    {
+        RectF bounds = actor.getBounds();
+        float x = actor.getX();
+        float y = actor.getY();
+        float left = Math.min(bounds.left, x);
+        float top = Math.min(bounds.top, y);
+        float right = Math.max(bounds.right, x);
+        float bottom = Math.max(bounds.bottom, y);
+        if (actor.getRotation() % 360 != 0)
+        {
+            float radius = (float)Math.hypot(right - left, bottom - top);
+            left -= radius;
+            top -= radius;
+            right += radius;
+            bottom += radius;
+        }
+        cells.put(actor,
+            cellOf(left), cellOf(top), lastCellOf(right), lastCellOf(bottom));
+        if (repaintOnlyChanges && cells.getRange(actor, movedRange))
+        {
+            markDirty(movedRange);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Add a range of cells to the region to repaint in the next frame.
+     * Must be called while holding actorSetLock.
+     */
+    private void markDirty(int[] range)
+    {
+        if (dirtyCells[0] > dirtyCells[2])
+        {
+            System.arraycopy(range, 0, dirtyCells, 0, 4);
+        }
+        else
+        {
+            dirtyCells[0] = Math.min(dirtyCells[0], range[0]);
+            dirtyCells[1] = Math.min(dirtyCells[1], range[1]);
+            dirtyCells[2] = Math.max(dirtyCells[2], range[2]);
+            dirtyCells[3] = Math.max(dirtyCells[3], range[3]);
+        }
+        changeEpoch++;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Extend a rectangle (in grid coordinates) to cover a range of cells.
+     */
+    private static void addCellsTo(RectF rect, int[] range)
+    {
+        if (range[0] <= range[2])
+        {
+            rect.union(range[0] - 0.5f, range[1] - 0.5f,
+                range[2] + 0.5f, range[3] + 0.5f);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    private static int[] emptyRange()
+    {
+        return new int[] { 0, 0, -1, -1 };
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the cell row or column containing a grid coordinate.  Cell n
+     * covers coordinates from n - 0.5 (inclusive) to n + 0.5 (exclusive).
+     */
+    private static int cellOf(float coordinate)
+    {
+        return (int)Math.floor(coordinate + 0.5f);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the last cell row or column touched by a span that ends
+     * (exclusively) at the given coordinate.
+     */
+    private static int lastCellOf(float end)
+    {
+        return (int)Math.ceil(end + 0.5f) - 1;
+    }
+
+
+    // ----------------------------------------------------------
+    private int clipColumn(int x)
     {
-        float scaleFactor = pixelsPerCell;
-        if (scaledCellSize != 0)
-        {
-            scaleFactor = scaledCellSize;
-        }
-        return new RectF(0.0f, 0.0f,
-            width / scaleFactor,
-            height / scaleFactor);
+        return Math.max(0, Math.min(x, width - 1));
     }
 
 
     // ----------------------------------------------------------
-    /* package */ boolean isRunning()
+    private int clipRow(int y)
     {
-        return engine.isRunning();
+        return Math.max(0, Math.min(y, height - 1));
     }
 
 
     // ----------------------------------------------------------
     /**
-     * Start (or run, or resume) the world.  This requires that the world
-     * has already been attached to a view.
+     * Get an actor's x-coordinate as queries should see it, which is where
+     * it was at the start of the step in a double-buffered world.  This
+     * and the following geometry methods must be called while holding
+     * actorSetLock.
      */
-    public void start()
+    private float xOf(Actor actor)
     {
-        engine.startRunning();
+        FrozenGeometry geometry = frozenGeometryOf(actor);
+        return (geometry == null) ? actor.getX() : geometry.x;
     }
 
 
     // ----------------------------------------------------------
-    /* package */ void runOneStep()
+    private float yOf(Actor actor)
     {
-        engine.requestOneStep();
+        FrozenGeometry geometry = frozenGeometryOf(actor);
+        return (geometry == null) ? actor.getY() : geometry.y;
     }
 
 
     // ----------------------------------------------------------
-    /**
-     * Stop (or pause running of) the world.  This requires that the world
-     * has already been attached to a view.
-     */
-    public void stop()
+    private RectF boundsOf(Actor actor)
     {
-        engine.stopRunning();
+        FrozenGeometry geometry = frozenGeometryOf(actor);
+        return (geometry == null) ? actor.getBounds() : geometry.bounds;
     }
 
 
     // ----------------------------------------------------------
-    /* package */ void temporarilyPauseRunning()
+    private boolean containsPoint(Actor actor, float x, float y)
     {
-        engine.temporarilyPauseRunning();
+        FrozenGeometry geometry = frozenGeometryOf(actor);
+        return (geometry == null)
+            ? actor.contains(x, y)
+            : geometry.bounds.contains(x, y);
     }
 
 
     // ----------------------------------------------------------
-    /* package */ void resumeRunningIfNecessary()
+    private FrozenGeometry frozenGeometryOf(Actor actor)
     {
-        engine.resumeRunningIfNecessary();
+        return readingSnapshot ? frozenGeometry.get(actor) : null;
     }
 
 
     // ----------------------------------------------------------
-    /* package */ World getMostRecentlyCreated()
+    /**
+     * Determine whether an actor matches a class filter, where a null
+     * class matches all actors.
+     */
+    private static boolean isInstance(Class<?> cls, Actor actor)
+    {
+        return cls == null || cls.isInstance(actor);
+    }
+
+
+    // ----------------------------------------------------------
+    private static <MyActor extends Actor> MyActor asInstance(
+        Class<MyActor> cls, Actor actor)
     {
-        return mostRecentlyCreated;
+        if (cls == null)
+        {
+            @SuppressWarnings("unchecked")
+            MyActor result = (MyActor)actor;
+            return result;
+        }
+        return cls.cast(actor);
     }
 
 
     // ----------------------------------------------------------
     /**
-     * Throws an exception if the world is not associated with a view.
-     *
-     * @throws IllegalStateException If not in view.
+     * Determine whether an actor is within the given number of steps
+     * from the cell (x, y), not counting anything in that cell itself.
      */
-    private void failIfNotInView()
+    private boolean isNeighbor(
+        int x, int y, Actor actor, float distance, boolean diag)
     {
-        if (view == null)
+        int dx = Math.abs(Math.round(xOf(actor)) - x);
+        int dy = Math.abs(Math.round(yOf(actor)) - y);
+        if (dx == 0 && dy == 0)
         {
-            throw new IllegalStateException(WORLD_NOT_IN_VIEW);
+            return false;
         }
+        return diag
+            ? Math.max(dx, dy) <= distance
+            : dx + dy <= distance;
     }
 
 
     // ----------------------------------------------------------
-    private static class ZClassComparator
-        extends ShapeSet.ZIndexComparator
+    /**
+     * Assigns ranks to classes based on an ordered list of classes, where
+     * classes that are not listed inherit the rank of their nearest listed
+     * superclass.  The rank of each class is worked out once and then
+     * cached.  Lookups do not lock: the cache is replaced, rather than
+     * changed, whenever a new class is resolved.
+     */
+    private static class ClassOrder
+        implements ActList.Ranking
     {
-        private java.util.Map<Class<? extends Shape>, Integer> order;
+        private volatile java.util.Map<Class<?>, Integer> order;
         private int last = 0;
 
         // ----------------------------------------------------------
         /**
-         * Create a comparator that orders objects by class first, and
-         * then by z-index.
-         * @param parent  The shape set to use for determining relative
-         *                insertion times.
+         * Create a new class order.
          * @param reverse If false, the classes should be ordered exactly
          *                as they appear in the parameter list; if true,
          *                the classes should be ordered in the reverse of
@@ -1142,21 +2517,19 @@ public class World
          * @param classes The class order to use.  Any objects that are not
          *                listed will appear <i>after</i> any of those listed.
          */
-        public ZClassComparator(ShapeSet parent, boolean reverse,
-            Class<? extends Shape> ... classes)
+        public ClassOrder(boolean reverse, Class<?> ... classes)
         {
-            super(parent);
             if (classes != null && classes.length > 0)
             {
-                order =
-                    new java.util.TreeMap<Class<? extends Shape>, Integer>();
+                java.util.Map<Class<?>, Integer> newOrder =
+                    new java.util.HashMap<Class<?>, Integer>();
                 if (reverse)
                 {
                     last = classes.length;
                 }
-                for (Class<? extends Shape> cls : classes)
+                for (Class<?> cls : classes)
                 {
-                    order.put(cls, last);
+                    newOrder.put(cls, last);
                     if (reverse)
                     {
                         last--;
@@ -1166,35 +2539,93 @@ public class World
                         last++;
                     }
                 }
+                order = newOrder;
             }
         }
 
 
         // ----------------------------------------------------------
-        private int getClassOrder(Class<? extends Shape> cls)
+        public int getClassOrder(Class<?> cls)
         {
-            if (order == null || cls == null)
+            java.util.Map<Class<?>, Integer> current = order;
+            if (current == null || cls == null)
             {
                 return 0;
             }
-            else
+            Integer result = current.get(cls);
+            if (result == null)
+            {
+                result = resolve(
+                    java.util.Collections.<Class<?>>singleton(cls)).get(cls);
+            }
+            return result;
+        }
+
+
+        // ----------------------------------------------------------
+        public int rankOf(Actor actor)
+        {
+            return getClassOrder(actor.getClass());
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Work out and cache the ranks of a group of classes at once.
+         * @param classes The classes to resolve.
+         * @return The updated cache.
+         */
+        public synchronized java.util.Map<Class<?>, Integer> resolve(
+            java.util.Collection<Class<?>> classes)
+        {
+            java.util.Map<Class<?>, Integer> current = order;
+            if (current == null || current.keySet().containsAll(classes))
+            {
+                return current;
+            }
+            java.util.Map<Class<?>, Integer> newOrder =
+                new java.util.HashMap<Class<?>, Integer>(current);
+            for (Class<?> cls : classes)
             {
-                Integer result = order.get(cls);
-                if (result == null)
+                if (!newOrder.containsKey(cls))
                 {
+                    Integer result = null;
                     Class<?> superClass = cls.getSuperclass();
                     while (superClass != null && result == null)
                     {
-                        result = order.get(superClass);
-                    }
-                    if (result == null)
-                    {
-                        result = last;
+                        result = newOrder.get(superClass);
+                        superClass = superClass.getSuperclass();
                     }
-                    order.put(cls, result);
+                    newOrder.put(cls, (result == null) ? last : result);
                 }
-                return result;
             }
+            order = newOrder;
+            return newOrder;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    private static class ZClassComparator
+        extends ShapeSet.ZIndexComparator
+    {
+        private ClassOrder order;
+
+        // ----------------------------------------------------------
+        /**
+         * Create a comparator that orders objects by class first, and
+         * then by z-index.  Actors are compared using the paint rank
+         * stored on each one, which must have been computed using the
+         * given order.
+         * @param parent  The shape set to use for determining relative
+         *                insertion times.
+         * @param order   The class order to use for shapes that are not
+         *                actors.
+         */
+        public ZClassComparator(ShapeSet parent, ClassOrder order)
+        {
+            super(parent);
+            this.order = order;
         }
 
 
@@ -1202,8 +2633,8 @@ public class World
         @Override
         public int compare(Shape shape1, Shape shape2)
         {
-            int order1 = getClassOrder(shape1.getClass());
-            int order2 = getClassOrder(shape2.getClass());
+            int order1 = rankOf(shape1);
+            int order2 = rankOf(shape2);
             if (order1 == order2)
             {
                 return super.compare(shape1, shape2);
@@ -1213,12 +2644,320 @@ public class World
                 return order1 - order2;
             }
         }
+
+
+        // ----------------------------------------------------------
+        private int rankOf(Shape shape)
+        {
+            return (shape instanceof Actor)
+                ? ((Actor)shape).getPaintRank()
+                : order.getClassOrder(shape.getClass());
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Call act() on one actor, logging any exception it throws, and
+     * timing it if a profiler is given.
+     */
+    private void actOne(Actor actor, StepProfiler stepProfiler)
+    {
+        long start = (stepProfiler == null) ? 0 : System.nanoTime();
+        try
+        {
+            actor.act();
+        }
+        catch (Exception e)
+        {
+            log.error("Unexpected exception in "
+                + actor.getClass().getSimpleName() + ".act()", e);
+            EngineEvents.get().caughtException(actor, "act", e);
+            trace.record(TraceBuffer.ACT_EXCEPTION, stepCount);
+        }
+        if (stepProfiler != null)
+        {
+            stepProfiler.recordActorAct(actor, System.nanoTime() - start);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Call act() on all of the actors in the act set, spreading the work
+     * over a pool of threads by stripes of rows, as described in
+     * {@link #setParallelAct(int, int)}.  Called on the engine thread.
+     */
+    private void actInParallel()
+    {
+        int threads = actThreads;
+        java.util.concurrent.ExecutorService pool;
+        synchronized (actorSetLock)
+        {
+            if (actPool == null)
+            {
+                actPool = java.util.concurrent.Executors.newFixedThreadPool(
+                    threads, new java.util.concurrent.ThreadFactory() {
+                        private int count = 0;
+
+                        // ----------------------------------------------
+                        public synchronized Thread newThread(Runnable r)
+                        {
+                            Thread result = new Thread(
+                                r, "World-act-" + (++count));
+                            result.setDaemon(true);
+                            return result;
+                        }
+                    });
+            }
+            pool = actPool;
+        }
+
+        // Split the actors into stripes, keeping act order within each
+        int stripeHeight = Math.max(2 * interactionRange,
+            (height + 2 * threads - 1) / (2 * threads));
+        int stripeCount = (height + stripeHeight - 1) / stripeHeight;
+        List<Stripe> stripes = new java.util.ArrayList<Stripe>(stripeCount);
+        for (int i = 0; i < stripeCount; i++)
+        {
+            stripes.add(new Stripe(i * stripeHeight,
+                Math.min(height, (i + 1) * stripeHeight) - 1));
+        }
+        for (int i = 0; i < actList.size(); i++)
+        {
+            Actor actor = actList.get(i);
+            if (actor != null && actor.getWorld() == this)
+            {
+                stripes.get(clipRow(cellOf(actor.getY())) / stripeHeight)
+                    .actors.add(actor);
+            }
+        }
+
+        // Even stripes, then odd ones
+        for (int parity = 0; parity < 2; parity++)
+        {
+            List<Stripe> batch = new java.util.ArrayList<Stripe>();
+            for (int i = parity; i < stripeCount; i += 2)
+            {
+                if (!stripes.get(i).actors.isEmpty())
+                {
+                    batch.add(stripes.get(i));
+                }
+            }
+            try
+            {
+                for (java.util.concurrent.Future<Void> result
+                    : pool.invokeAll(batch))
+                {
+                    try
+                    {
+                        result.get();
+                    }
+                    catch (java.util.concurrent.ExecutionException e)
+                    {
+                        log.error("Unexpected error while acting in "
+                            + getClass().getSimpleName(), e.getCause());
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                log.error("Interrupted while acting in "
+                    + getClass().getSimpleName(), e);
+            }
+        }
+
+        // Apply deferred changes in stripe order
+        for (Stripe stripe : stripes)
+        {
+            stripe.commit();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Apply a list of deferred changes, in order.
+     */
+    private void applyChanges(List<PendingChange> changes)
+    {
+        for (PendingChange change : changes)
+        {
+            switch (change.kind)
+            {
+                case PendingChange.ADD:
+                    add(change.actor);
+                    break;
+                case PendingChange.REMOVE:
+                    if (change.actor.getWorld() == this)
+                    {
+                        remove(change.actor);
+                    }
+                    break;
+                default:
+                    actorMoved(change.actor);
+                    break;
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * End the reading phase of a double-buffered step: bring the indexes
+     * up to date with every actor that moved, and then apply the adds and
+     * removes made during the step, in order.  Called on the engine
+     * thread.
+     */
+    private void commitNextState()
+    {
+        List<Actor> moved;
+        List<PendingChange> changes;
+        synchronized (actorSetLock)
+        {
+            readingSnapshot = false;
+            moved = new java.util.ArrayList<Actor>(frozenGeometry.keySet());
+            frozenGeometry.clear();
+            moved.addAll(movedInSnapshot);
+            movedInSnapshot.clear();
+            changes = new java.util.ArrayList<PendingChange>(nextState);
+            nextState.clear();
+        }
+        for (Actor actor : moved)
+        {
+            actorMoved(actor);
+        }
+        applyChanges(changes);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * The position and extent of an actor at the start of a
+     * double-buffered step, saved when the actor first moves.
+     */
+    private static class FrozenGeometry
+    {
+        final float x;
+        final float y;
+        final RectF bounds;
+
+        // ----------------------------------------------------------
+        FrozenGeometry(Actor actor)
+        {
+            x = actor.getX();
+            y = actor.getY();
+            bounds = new RectF(actor.getBounds());
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * A change recorded while a stripe of actors was acting in parallel,
+     * or during a double-buffered step.
+     */
+    private static class PendingChange
+    {
+        static final int ADD    = 0;
+        static final int REMOVE = 1;
+        static final int MOVE   = 2;
+
+        final int kind;
+        final Actor actor;
+
+        // ----------------------------------------------------------
+        PendingChange(int kind, Actor actor)
+        {
+            this.kind = kind;
+            this.actor = actor;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * A horizontal stripe of the grid, holding the actors that act
+     * together on one thread during a parallel act phase, along with the
+     * changes they make that must wait until the end of the phase.
+     */
+    private class Stripe
+        implements java.util.concurrent.Callable<Void>
+    {
+        private final int top;
+        private final int bottom;
+        private final List<Actor> actors = new java.util.ArrayList<Actor>();
+        private final List<PendingChange> changes =
+            new java.util.ArrayList<PendingChange>();
+
+        // ----------------------------------------------------------
+        Stripe(int top, int bottom)
+        {
+            this.top = top;
+            this.bottom = bottom;
+        }
+
+
+        // ----------------------------------------------------------
+        public Void call()
+        {
+            currentStripe.set(this);
+            try
+            {
+                StepProfiler stepProfiler = profiler;
+                for (Actor actor : actors)
+                {
+                    actOne(actor, stepProfiler);
+                }
+            }
+            finally
+            {
+                currentStripe.remove();
+            }
+            return null;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Determine whether an actor's location is within this stripe.
+         */
+        boolean holds(Actor actor)
+        {
+            int row = cellOf(actor.getY());
+            return row >= top && row <= bottom;
+        }
+
+
+        // ----------------------------------------------------------
+        void defer(int kind, Actor actor)
+        {
+            changes.add(new PendingChange(kind, actor));
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Apply this stripe's deferred changes, in the order they were
+         * made.  Called on the engine thread.
+         */
+        void commit()
+        {
+            applyChanges(changes);
+            changes.clear();
+        }
     }
 
 
     // ----------------------------------------------------------
+    /**
+     * Runs this world's steps.  The engine does not own a thread: each
+     * step is a task run by the world's {@link Clock} (normally on a
+     * thread pool shared by all worlds), which schedules the next task
+     * before it returns, and an engine that is stopped or paused simply
+     * has no task scheduled until it is asked to start again.
+     */
     private class Engine
-        extends Thread
     {
         private volatile boolean isRunning            = false;
         private volatile boolean oneStep              = false;
@@ -1229,6 +2968,23 @@ public class World
         private volatile boolean signalStop           = false;
         private volatile int     speed;
         private volatile long    delay;
+        private volatile int     maxFrameRate         = 0;
+        private volatile long    frameInterval        = 0;  // nanoseconds
+        private long             lastRepaint;
+        private long             repaintedEpoch       = -1;
+        private boolean          repaintPending       = false;
+        private volatile double  stepsPerSecond       = 0;
+        private volatile long    stepPeriod           = 0;  // nanoseconds
+        private volatile boolean resetPacing          = true;
+        private long             nextStepTime;
+        private long             rateWindowStart;
+        private int              rateWindowSteps;
+        private volatile double  actualStepsPerSecond = 0;
+        private boolean          isIdle               = true;
+        private boolean          isDisposed           = false;
+        private java.util.concurrent.Future<?> nextTick;
+        private Thread           tickThread;  // Set while a tick runs
+        private long             tickGeneration;
 
 
         // ----------------------------------------------------------
@@ -1248,9 +3004,11 @@ public class World
         // ----------------------------------------------------------
         public synchronized void setSpeed(int speed)
         {
-            log.debug("setSpeed({})", speed);
+            trace.record(TraceBuffer.SET_SPEED, speed);
 
             this.speed = speed;
+            stepsPerSecond = 0;
+            stepPeriod = 0;
             // Make the speed into a delay
             long rawDelay = MAX_SPEED - speed;
 
@@ -1269,6 +3027,48 @@ public class World
         }
 
 
+        // ----------------------------------------------------------
+        public double getStepsPerSecond()
+        {
+            return stepsPerSecond;
+        }
+
+
+        // ----------------------------------------------------------
+        public synchronized void setStepsPerSecond(double stepsPerSecond)
+        {
+            this.stepsPerSecond = stepsPerSecond;
+            stepPeriod = (stepsPerSecond == 0)
+                ? 0
+                : Math.max(1L, (long)(1000000000L / stepsPerSecond));
+            resetPacing = true;
+        }
+
+
+        // ----------------------------------------------------------
+        public double getActualStepsPerSecond()
+        {
+            return actualStepsPerSecond;
+        }
+
+
+        // ----------------------------------------------------------
+        public int getMaxFrameRate()
+        {
+            return maxFrameRate;
+        }
+
+
+        // ----------------------------------------------------------
+        public void setMaxFrameRate(int framesPerSecond)
+        {
+            maxFrameRate = framesPerSecond;
+            frameInterval = (framesPerSecond == 0)
+                ? 0
+                : 1000000000L / framesPerSecond;
+        }
+
+
         // ----------------------------------------------------------
         public synchronized boolean isRunning()
         {
@@ -1276,15 +3076,27 @@ public class World
         }
 
 
+        // ----------------------------------------------------------
+        public synchronized void setClock(Clock newClock)
+        {
+            if (!isIdle)
+            {
+                throw new IllegalStateException(
+                    "The clock cannot be changed while the world is running.");
+            }
+            clock = newClock;
+        }
+
+
         // ----------------------------------------------------------
         public synchronized void startRunning()
         {
-            log.debug("startRunning()");
+            trace.record(TraceBuffer.START);
             if (!isRunning)
             {
                 isRunning = true;
                 signalStart = true;
-                notify();
+                wake();
             }
         }
 
@@ -1292,12 +3104,12 @@ public class World
         // ----------------------------------------------------------
         public synchronized void requestOneStep()
         {
-            log.debug("requestOneStep()");
+            trace.record(TraceBuffer.ONE_STEP);
             if (!isRunning)
             {
                 oneStep   = true;
                 isRunning = true;
-                notify();
+                wake();
             }
         }
 
@@ -1305,11 +3117,21 @@ public class World
         // ----------------------------------------------------------
         public synchronized void stopRunning()
         {
-            log.debug("stopRunning()");
+            trace.record(TraceBuffer.STOP);
             if (isRunning)
             {
                 willStop = true;
                 signalStop = true;
+
+                // Rather than waiting out the delay before the next step,
+                // handle the stop right away.  A tick that is running now
+                // handles it itself; one that has started but not yet got
+                // this far is turned into a no-op by the new generation.
+                if (nextTick != null && tickThread == null
+                    && nextTick.cancel(false))
+                {
+                    schedule(0);
+                }
             }
         }
 
@@ -1317,7 +3139,7 @@ public class World
         // ----------------------------------------------------------
         public synchronized void temporarilyPauseRunning()
         {
-            log.debug("temporarilyPauseRunning()");
+            trace.record(TraceBuffer.PAUSE);
             if (isRunning && !isTemporarilyPaused)
             {
                 willTemporarilyPause = true;
@@ -1328,104 +3150,359 @@ public class World
         // ----------------------------------------------------------
         public synchronized void resumeRunningIfNecessary()
         {
-            log.debug("resumeRunningIfNecessary()");
+            trace.record(TraceBuffer.RESUME);
             willTemporarilyPause = false;
             if (isRunning && isTemporarilyPaused)
             {
                 isTemporarilyPaused = false;
-                notify();
+                wake();
             }
         }
 
 
         // ----------------------------------------------------------
-        @Override
-        public void run()
+        /**
+         * Stop this engine for good, cancelling any scheduled step.
+         */
+        public synchronized void dispose()
+        {
+            trace.record(TraceBuffer.DISPOSE);
+            isDisposed = true;
+            isRunning = false;
+            if (nextTick != null)
+            {
+                nextTick.cancel(false);
+                nextTick = null;
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Run a single step on the calling thread, which is only allowed
+         * while the engine is stopped and idle.  The engine counts as busy
+         * until the step is done, so a start or single step requested in
+         * the meantime is held back and only scheduled afterward.
+         */
+        public void stepNow()
         {
-            while (true)
+            synchronized (this)
+            {
+                if (isDisposed)
+                {
+                    throw new IllegalStateException(
+                        "A disposed world cannot be stepped.");
+                }
+                if (isRunning || !isIdle)
+                {
+                    throw new IllegalStateException(
+                        "A running world cannot be stepped directly.");
+                }
+                isIdle = false;
+            }
+            waitForPrograms = true;
+            try
+            {
+                step();
+            }
+            finally
             {
-                boolean needToWait = false;
+                waitForPrograms = false;
                 synchronized (this)
                 {
-                    if (willStop)
+                    isIdle = true;
+                    if (isRunning)
                     {
-                        isRunning = false;
+                        wake();
                     }
+                }
+            }
+        }
 
-                    if (!isRunning)
-                    {
-                        log.debug("engine stopping");
-                        willStop = false;
-                        willTemporarilyPause = false;
-                        isTemporarilyPaused = false;
-                        needToWait = true;
-                    }
-                    else if (willTemporarilyPause)
+
+        // ----------------------------------------------------------
+        /**
+         * Schedule a step right away if the engine is idle.  Must be
+         * called while holding this engine's lock.
+         */
+        private void wake()
+        {
+            if (isIdle && !isDisposed)
+            {
+                isIdle = false;
+                resetPacing = true;
+                rateWindowStart = clock.nanoTime();
+                rateWindowSteps = 0;
+                schedule(0);
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Schedule the next step.  Must be called while holding this
+         * engine's lock.
+         * @param delay How long to wait first, in nanoseconds.
+         */
+        private void schedule(long delay)
+        {
+            if (!isDisposed)
+            {
+                trace.record(TraceBuffer.SCHEDULE, delay);
+                nextTick = clock.schedule(
+                    new Tick(++tickGeneration), Math.max(0L, delay));
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Run one tick of the engine: handle any pending start, stop, or
+         * pause request, run the step (or steps) that are due, and then
+         * schedule the next tick.  If the engine has stopped or paused,
+         * no further tick is scheduled until it is woken up.
+         *
+         * <p>At most one tick runs at a time: a tick that was replaced by
+         * a later {@link #schedule(long)} (because cancelling it came too
+         * late to stop it from starting) does nothing.</p>
+         *
+         * @param generation The number of the schedule() call that
+         *                   scheduled this tick.
+         */
+        private void run(long generation)
+        {
+            synchronized (this)
+            {
+                if (isDisposed || generation != tickGeneration
+                    || tickThread != null)
+                {
+                    return;
+                }
+                tickThread = Thread.currentThread();
+            }
+            try
+            {
+                tick();
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    if (tickThread == Thread.currentThread())
                     {
-                        log.debug("engine will pause");
-                        isTemporarilyPaused = true;
-                        willTemporarilyPause = false;
-                        needToWait = true;
+                        tickThread = null;
                     }
                 }
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * The body of {@link #run(long)}, which runs while this tick is
+         * marked as the one in progress.
+         */
+        private void tick()
+        {
+            boolean needToWait = false;
+            synchronized (this)
+            {
+                if (isDisposed)
+                {
+                    return;
+                }
 
-                // If necessary, wait for a signal to start up
-                if (needToWait)
+                if (willStop)
                 {
-                    if (signalStop)
-                    {
-                        notifyOfStop();
-                        signalStop = false;
-                    }
-                    try
-                    {
-                        log.debug("No longer running.  Waiting for request.");
-                        synchronized (this)
-                        {
-                            wait();
-                        }
-                    }
-                    catch (InterruptedException e)
-                    {
-                        // Ignore and resume
-                    }
+                    isRunning = false;
+                }
 
+                if (!isRunning)
+                {
+                    trace.record(TraceBuffer.STOPPING);
+                    willStop = false;
+                    willTemporarilyPause = false;
+                    isTemporarilyPaused = false;
+                    needToWait = true;
+                }
+                else if (willTemporarilyPause)
+                {
+                    trace.record(TraceBuffer.PAUSING);
+                    isTemporarilyPaused = true;
+                    willTemporarilyPause = false;
+                    needToWait = true;
+                }
+            }
 
-                    if (signalStart)
-                    {
-                        notifyOfStart();
-                        signalStart = false;
-                    }
+            // If necessary, go idle until woken by a request
+            if (needToWait)
+            {
+                if (repaintPending)
+                {
+                    // Show the latest state before going idle
+                    repaint(true);
                 }
-                // Otherwise, insert a delay between steps
-                else
+                if (signalStop)
                 {
-                    try
+                    notifyOfStop();
+                    signalStop = false;
+                }
+                synchronized (this)
+                {
+                    if (isDisposed)
                     {
-                        log.debug("engine: sleep({})", delay);
-                        sleep(delay);
+                        return;
                     }
-                    catch (InterruptedException e)
+                    if (!isRunning || isTemporarilyPaused)
                     {
-                        // Ignore and resume
+                        trace.record(TraceBuffer.IDLE);
+                        isIdle = true;
+                        nextTick = null;
+                        // A wake() from here on schedules a new tick
+                        tickThread = null;
+                        return;
                     }
                 }
+            }
 
+            if (signalStart)
+            {
+                notifyOfStart();
+                signalStart = false;
+            }
+
+            int steps = stepsDue();
+            int taken = 0;
+            while (taken < steps)
+            {
+                if (taken > 0 && (willStop || willTemporarilyPause))
+                {
+                    break;
+                }
                 step();
+                taken++;
+            }
+            measureRate(taken);
 
-                synchronized (this)
+            synchronized (this)
+            {
+                if (oneStep)
                 {
-                    if (oneStep)
-                    {
-                        log.debug("oneStep request detected, will stop.");
-                        oneStep = false;
-                        willStop = true;
-                    }
+                    trace.record(TraceBuffer.ONE_STEP_DONE);
+                    oneStep = false;
+                    willStop = true;
+                }
+
+                // This tick is done once the next one is scheduled, which
+                // may start running before this method returns
+                tickThread = null;
+
+                // Insert a delay between steps
+                if (willStop || willTemporarilyPause)
+                {
+                    schedule(0);
+                }
+                else if (stepPeriod > 0)
+                {
+                    // With a fixed step rate, wait until the next step
+                    // is due
+                    schedule(Math.max(nextStepTime - clock.nanoTime(),
+                        clock.getMinimumStepInterval()));
+                }
+                else
+                {
+                    schedule(Math.max(delay * 1000000L,
+                        clock.getMinimumStepInterval()));
                 }
             }
         }
 
 
+        // ----------------------------------------------------------
+        /**
+         * One scheduled tick of the engine.
+         */
+        private class Tick
+            implements Runnable
+        {
+            private final long generation;
+
+            // ----------------------------------------------------------
+            public Tick(long generation)
+            {
+                this.generation = generation;
+            }
+
+            // ----------------------------------------------------------
+            public void run()
+            {
+                Engine.this.run(generation);
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Determine how many steps to run now.  This is always one, unless
+         * a fixed step rate is in effect and the engine has fallen behind,
+         * in which case it is enough steps to catch up, up to
+         * MAX_CATCH_UP_STEPS.  Any backlog beyond that is dropped.
+         */
+        private int stepsDue()
+        {
+            long period = stepPeriod;
+            if (period == 0 || oneStep)
+            {
+                resetPacing = true;
+                return 1;
+            }
+
+            long now = clock.nanoTime();
+            if (resetPacing)
+            {
+                resetPacing = false;
+                nextStepTime = now + period;
+                return 1;
+            }
+
+            long behind = now - nextStepTime;
+            long steps = 1;
+            if (behind > 0)
+            {
+                steps += behind / period;
+            }
+            if (steps > MAX_CATCH_UP_STEPS)
+            {
+                steps = MAX_CATCH_UP_STEPS;
+                nextStepTime = now + period;
+            }
+            else
+            {
+                nextStepTime += steps * period;
+            }
+            return (int)steps;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Update the measured step rate, which is recomputed about once
+         * per RATE_WINDOW.
+         */
+        private void measureRate(int steps)
+        {
+            rateWindowSteps += steps;
+            long elapsed = clock.nanoTime() - rateWindowStart;
+            if (elapsed >= RATE_WINDOW)
+            {
+                actualStepsPerSecond =
+                    rateWindowSteps * (double)RATE_WINDOW / elapsed;
+                rateWindowStart += elapsed;
+                rateWindowSteps = 0;
+            }
+        }
+
+
         // ----------------------------------------------------------
         /**
          * Run a single step of the world, which includes calling act()
@@ -1433,17 +3510,48 @@ public class World
          */
         private void step()
         {
-            log.debug("beginning step");
+            trace.record(TraceBuffer.STEP_BEGIN, stepCount);
+
+            // When profiling, each phase is timed; otherwise, nothing is
+            StepProfiler profiler = World.this.profiler;
+            long stepStart = (profiler == null) ? 0 : System.nanoTime();
+            long start = stepStart;
+            EngineEvents events = EngineEvents.get();
+            Object stepEvent = events.beginStep();
 
             // act for view
-            try
+            if (view != null)
             {
-                view.act();
+                try
+                {
+                    view.act();
+                }
+                catch (Exception e)
+                {
+                    log.error("Unexpected exception in "
+                        + view.getClass().getSimpleName() + ".act()", e);
+                    events.caughtException(view, "act", e);
+                    trace.record(TraceBuffer.ACT_EXCEPTION, stepCount);
+                }
+                if (profiler != null)
+                {
+                    long now = System.nanoTime();
+                    profiler.recordViewAct(now - start);
+                    start = now;
+                }
             }
-            catch (Exception e)
+
+            // In a double-buffered world, act against a frozen snapshot
+            boolean buffered = doubleBuffered;
+            if (buffered)
             {
-                log.error("Unexpected exception in "
-                    + view.getClass().getSimpleName() + ".act()", e);
+                // Set under the lock, like the rest of the snapshot state,
+                // so an actor moving on a program thread sees it change
+                // either before or after each half of its move
+                synchronized (actorSetLock)
+                {
+                    readingSnapshot = true;
+                }
             }
 
             // act for world
@@ -1455,51 +3563,137 @@ public class World
             {
                 log.error("Unexpected exception in "
                     + World.this.getClass().getSimpleName() + ".act()", e);
+                events.caughtException(World.this, "act", e);
+                trace.record(TraceBuffer.ACT_EXCEPTION, stepCount);
+            }
+            if (profiler != null)
+            {
+                profiler.recordWorldAct(System.nanoTime() - start);
             }
 
             // act for all actors
-            if (actSet == null)
+            commitActList(events, events.beginCommit());
+            int actorCount = actList.size();
+            if (actThreads > 1)
             {
-                actSet = new java.util.TreeSet<Actor>(
-                    new ZClassComparator((ShapeSet)view.getShapes(), false));
-                actSet.addAll(getObjects(Actor.class));
+                actInParallel();
             }
-            for (Actor actor : actSet)
+            else
             {
-                if (!deferredRemoves.contains(actor))
+                for (int i = 0; i < actList.size(); i++)
                 {
-                    try
-                    {
-                        actor.act();
-                    }
-                    catch (Exception e)
+                    Actor actor = actList.get(i);
+                    if (actor != null && actor.getWorld() == World.this)
                     {
-                        log.error("Unexpected exception in "
-                            + actor.getClass().getSimpleName() + ".act()", e);
+                        actOne(actor, profiler);
                     }
                 }
             }
 
-            handleDeferredActions();
-            log.debug("ending step");
-            view.repaint();
+            if (!resumedPrograms.isEmpty())
+            {
+                awaitResumedPrograms();
+            }
+
+            if (profiler != null)
+            {
+                start = System.nanoTime();
+            }
+            Object commitEvent = events.beginCommit();
+            if (buffered)
+            {
+                commitNextState();
+            }
+            commitActList(events, commitEvent);
+            long stepIndex = stepCount++;
+            trace.record(TraceBuffer.STEP_END, stepIndex, actorCount);
+            if (profiler != null)
+            {
+                long now = System.nanoTime();
+                profiler.recordDeferredActions(now - start);
+                start = now;
+            }
+
+            repaint(false);
+            if (profiler != null)
+            {
+                long now = System.nanoTime();
+                profiler.recordRepaint(now - start);
+                profiler.recordStep(now - stepStart);
+            }
+            events.endStep(stepEvent, World.this, stepIndex, actorCount);
         }
 
 
         // ----------------------------------------------------------
-        private void notifyOfStart()
+        /**
+         * Merge the actors added since the last commit into the act list,
+         * and drop the ones that were removed, reporting the commit to
+         * the given receiver.
+         * @param events The receiver to report the commit to.
+         * @param token  The token from the receiver's beginCommit().
+         */
+        private void commitActList(EngineEvents events, Object token)
         {
-            log.debug("notifying started()");
+            actList.commit();
+            events.endCommit(token, World.this,
+                actList.getLastAdds(), actList.getLastRemoves());
+        }
 
-            // started for view
-            try
+
+        // ----------------------------------------------------------
+        /**
+         * Ask the view to repaint.  Unless forced, the request is skipped
+         * (and remembered as pending) if a maximum frame rate is in effect
+         * and the last repaint was too recent.
+         * @param force If true, repaint regardless of the frame rate.
+         */
+        private void repaint(boolean force)
+        {
+            if (view == null)
             {
-                view.started();
+                return;
             }
-            catch (Exception e)
+            long epoch = changeEpoch;
+            if (!force && repaintOnlyChanges && epoch == repaintedEpoch)
             {
-                log.error("Unexpected exception in "
-                    + view.getClass().getSimpleName() + ".started()", e);
+                // Nothing has changed since the last repaint
+                repaintPending = false;
+                return;
+            }
+            long interval = frameInterval;
+            long now = clock.nanoTime();
+            if (force || interval == 0 || now - lastRepaint >= interval)
+            {
+                lastRepaint = now;
+                repaintedEpoch = epoch;
+                repaintPending = false;
+                view.repaint();
+            }
+            else
+            {
+                repaintPending = true;
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        private void notifyOfStart()
+        {
+            trace.record(TraceBuffer.NOTIFY_START);
+
+            // started for view
+            if (view != null)
+            {
+                try
+                {
+                    view.started();
+                }
+                catch (Exception e)
+                {
+                    log.error("Unexpected exception in "
+                        + view.getClass().getSimpleName() + ".started()", e);
+                }
             }
 
             // started for world
@@ -1514,24 +3708,27 @@ public class World
             }
 
             handleDeferredActions();
-            view.repaint();
+            repaint(true);
         }
 
 
         // ----------------------------------------------------------
         private void notifyOfStop()
         {
-            log.debug("notifying stopped()");
+            trace.record(TraceBuffer.NOTIFY_STOP);
 
             // stopped for view
-            try
+            if (view != null)
             {
-                view.stopped();
-            }
-            catch (Exception e)
-            {
-                log.error("Unexpected exception in "
-                    + view.getClass().getSimpleName() + ".stopped()", e);
+                try
+                {
+                    view.stopped();
+                }
+                catch (Exception e)
+                {
+                    log.error("Unexpected exception in "
+                        + view.getClass().getSimpleName() + ".stopped()", e);
+                }
             }
 
             // stopped for world
@@ -1546,29 +3743,16 @@ public class World
             }
 
             handleDeferredActions();
-            view.repaint();
+            repaint(true);
         }
 
 
         // ----------------------------------------------------------
         private void handleDeferredActions()
         {
-            synchronized (deferredAdds)
-            {
-                for (Actor actor : deferredAdds)
-                {
-                    actSet.add(actor);
-                }
-                deferredAdds.clear();
-            }
-            synchronized (deferredRemoves)
-            {
-                for (Actor actor : deferredRemoves)
-                {
-                    actSet.remove(actor);
-                }
-                deferredRemoves.clear();
-            }
+            // Merge actors added during the step into the act list, and
+            // drop the ones that were removed
+            actList.commit();
         }
     }
 }
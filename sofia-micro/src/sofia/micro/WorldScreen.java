@@ -155,6 +155,8 @@ public class WorldScreen
         if (getWorld() != null)
         {
             getWorld().stop();
+            // Release the old world's programs, engine, and bitmaps
+            getWorld().dispose();
         }
         if (getWorldView() != null)
         {
@@ -5,6 +5,7 @@ import sofia.graphics.ShapeSet;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.SurfaceHolder;
 
@@ -23,6 +24,7 @@ public class WorldView
     //~ Fields ................................................................
 
     private World world;
+    private final RectF dirtyRegion = new RectF();
 
 
     //~ Constructors ..........................................................
@@ -55,6 +57,7 @@ public class WorldView
                 World world = getWorld();
                 if (world != null)
                 {
+                    world.repaintAll();
                     world.resumeRunningIfNecessary();
                 }
             }
@@ -251,6 +254,12 @@ public class WorldView
         {
             canvas.save();
             canvas.concat(xform);
+
+            // If only part of the world has changed, redraw just that part
+            if (world.getDirtyRegion(dirtyRegion))
+            {
+                canvas.clipRect(dirtyRegion);
+            }
         }
 
         // Now draw!
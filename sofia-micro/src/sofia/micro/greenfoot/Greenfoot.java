@@ -1,5 +1,7 @@
 package sofia.micro.greenfoot;
 
+import sofia.micro.internal.RunContext;
+
 //-------------------------------------------------------------------------
 /**
  * A small "adaptor" class that provides Greenfoot-style static methods
@@ -14,8 +16,6 @@ public class Greenfoot
 {
     //~ Fields ................................................................
 
-    private static sofia.micro.World world;
-
     /** Error message to display when trying to use methods that requires
      * the actor be in a world.
      */
@@ -46,8 +46,7 @@ public class Greenfoot
      */
     public static void setSpeed(int speed)
     {
-        failIfNoWorld();
-        world.setSpeed(speed);
+        failIfNoWorld().setSpeed(speed);
     }
 
 
@@ -57,8 +56,7 @@ public class Greenfoot
      */
     public static void stop()
     {
-        failIfNoWorld();
-        world.stop();
+        failIfNoWorld().stop();
     }
 
 
@@ -68,8 +66,7 @@ public class Greenfoot
      */
     public static void start()
     {
-        failIfNoWorld();
-        world.start();
+        failIfNoWorld().start();
     }
 
 
@@ -88,16 +85,21 @@ public class Greenfoot
 
     // ----------------------------------------------------------
     /**
-     * Throws an exception if there is no world set.
+     * Throws an exception if there is no world set.  The world is kept
+     * per {@link RunContext}, so worlds run side by side in batch each
+     * have their own.
      *
+     * @return The world that is set.
      * @throws IllegalStateException If no world is set.
      */
-    private static void failIfNoWorld()
+    private static sofia.micro.World failIfNoWorld()
     {
+        sofia.micro.World world = RunContext.getCurrent().getGreenfootWorld();
         if (world == null)
         {
             throw new IllegalStateException(NO_WORLD);
         }
+        return world;
     }
 
 
@@ -118,7 +120,7 @@ public class Greenfoot
             throw new NullPointerException("The given world cannot be null.");
         }
 
-        Greenfoot.world = world;
+        RunContext.getCurrent().setGreenfootWorld(world);
     }
 
 }
@@ -0,0 +1,106 @@
+package sofia.micro.internal;
+
+import java.util.Map;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//-------------------------------------------------------------------------
+/**
+ * The platform threads that carry {@link ProgramThread}s.  A carrier runs
+ * one program at a time; once the program ends, the carrier waits to be
+ * reused by the next program that starts, so worlds that are reset or
+ * rebuilt over and over (as in tests) do not create a new thread for
+ * every program.  Carriers that stay idle for a minute go away.  There is
+ * one pool for each stack size in use.
+ *
+ * <p>Carriers are daemon threads, so a program that never ends does not
+ * keep the application from exiting.</p>
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+/* package */ class CarrierPool
+    implements ThreadFactory
+{
+    //~ Fields ................................................................
+
+    private final long stackSize;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger created = new AtomicInteger();
+
+    private static final long IDLE_SECONDS = 60;
+    private static final Map<Long, CarrierPool> pools =
+        new java.util.HashMap<Long, CarrierPool>();
+
+
+    //~ Constructor ...........................................................
+
+    // ----------------------------------------------------------
+    private CarrierPool(long stackSize)
+    {
+        this.stackSize = stackSize;
+        executor = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, IDLE_SECONDS, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), this);
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Run a task on an idle carrier with the given stack size, or on a
+     * new one if none is idle.
+     * @param task      The task to run.
+     * @param stackSize The carrier's stack size in bytes, or zero for the
+     *                  JVM's default.
+     */
+    public static void execute(Runnable task, long stackSize)
+    {
+        CarrierPool pool;
+        synchronized (pools)
+        {
+            pool = pools.get(stackSize);
+            if (pool == null)
+            {
+                pool = new CarrierPool(stackSize);
+                pools.put(stackSize, pool);
+            }
+        }
+        pool.executor.execute(task);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of carriers that currently exist, whether they are
+     * running programs or idle.
+     * @return The number of carriers.
+     */
+    public static int getCarrierCount()
+    {
+        int count = 0;
+        synchronized (pools)
+        {
+            for (CarrierPool pool : pools.values())
+            {
+                count += pool.executor.getPoolSize();
+            }
+        }
+        return count;
+    }
+
+
+    // ----------------------------------------------------------
+    public Thread newThread(Runnable task)
+    {
+        Thread carrier = new Thread(null, task,
+            "ProgramCarrier-" + created.incrementAndGet(), stackSize);
+        carrier.setDaemon(true);
+        return carrier;
+    }
+}
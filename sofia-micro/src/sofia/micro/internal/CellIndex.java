@@ -0,0 +1,243 @@
+package sofia.micro.internal;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+//-------------------------------------------------------------------------
+/**
+ * A spatial index that buckets objects by the integer grid cells they
+ * cover.  Each object is recorded in every cell of a rectangular range
+ * of cells, so looking up the objects in a cell costs time proportional
+ * to the number of objects in that cell, rather than the number of
+ * objects in the whole grid.
+ *
+ * <p>This class is not thread-safe; callers are responsible for
+ * synchronizing access.</p>
+ *
+ * @param <T> The type of object stored in the index.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public class CellIndex<T>
+{
+    //~ Fields ................................................................
+
+    private final int width;
+    private final int height;
+    private final List<T>[] cells;
+    private final Map<T, int[]> ranges;
+
+
+    //~ Constructor ...........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new, empty index.
+     * @param width  The width of the grid (in cells).
+     * @param height The height of the grid (in cells).
+     */
+    public CellIndex(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        @SuppressWarnings("unchecked")
+        List<T>[] newCells = new List[width * height];
+        cells = newCells;
+        ranges = new java.util.IdentityHashMap<T, int[]>();
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Get the width of the grid covered by this index.
+     * @return The width (in cells).
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the height of the grid covered by this index.
+     * @return The height (in cells).
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Add an object to this index, or move it if it is already present.
+     * The object will be recorded in every cell in the given (inclusive)
+     * range, after the range has been clipped to the grid.  If the object
+     * is already recorded for exactly that range, nothing changes.
+     *
+     * @param item   The object to add.
+     * @param left   The leftmost cell column covered by the object.
+     * @param top    The topmost cell row covered by the object.
+     * @param right  The rightmost cell column covered by the object.
+     * @param bottom The bottommost cell row covered by the object.
+     */
+    public void put(T item, int left, int top, int right, int bottom)
+    {
+        left   = clip(left, width);
+        right  = clip(right, width);
+        top    = clip(top, height);
+        bottom = clip(bottom, height);
+
+        int[] range = ranges.get(item);
+        if (range != null)
+        {
+            if (range[0] == left && range[1] == top
+                && range[2] == right && range[3] == bottom)
+            {
+                return;
+            }
+            removeFromCells(item, range);
+        }
+        else
+        {
+            range = new int[4];
+            ranges.put(item, range);
+        }
+
+        range[0] = left;
+        range[1] = top;
+        range[2] = right;
+        range[3] = bottom;
+        for (int y = top; y <= bottom; y++)
+        {
+            for (int x = left; x <= right; x++)
+            {
+                int i = y * width + x;
+                List<T> cell = cells[i];
+                if (cell == null)
+                {
+                    cell = new java.util.ArrayList<T>(2);
+                    cells[i] = cell;
+                }
+                cell.add(item);
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Remove an object from this index.
+     * @param item The object to remove.
+     * @return True if the object was in the index.
+     */
+    public boolean remove(T item)
+    {
+        int[] range = ranges.remove(item);
+        if (range == null)
+        {
+            return false;
+        }
+        removeFromCells(item, range);
+        return true;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the objects recorded in a given cell.  Coordinates outside the
+     * grid are clipped to the nearest edge cell.  The list returned is
+     * owned by this index, and must not be modified or kept after the
+     * index changes.
+     *
+     * @param x The column of the cell.
+     * @param y The row of the cell.
+     * @return The objects in the cell (possibly an empty list).
+     */
+    public List<T> itemsAt(int x, int y)
+    {
+        List<T> cell = cells[clip(y, height) * width + clip(x, width)];
+        if (cell == null)
+        {
+            return Collections.emptyList();
+        }
+        return cell;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the (clipped, inclusive) range of cells an object is recorded
+     * in.
+     * @param item The object to look up.
+     * @param into An array of at least four elements, which will be
+     *             filled in with the left, top, right, and bottom cells.
+     * @return True if the object is in the index, or false if it is not
+     *         (in which case {@code into} is left unchanged).
+     */
+    public boolean getRange(T item, int[] into)
+    {
+        int[] range = ranges.get(item);
+        if (range == null)
+        {
+            return false;
+        }
+        System.arraycopy(range, 0, into, 0, 4);
+        return true;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of objects in this index.
+     * @return The number of objects.
+     */
+    public int size()
+    {
+        return ranges.size();
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    private void removeFromCells(T item, int[] range)
+    {
+        for (int y = range[1]; y <= range[3]; y++)
+        {
+            for (int x = range[0]; x <= range[2]; x++)
+            {
+                List<T> cell = cells[y * width + x];
+                for (int i = cell.size() - 1; i >= 0; i--)
+                {
+                    if (cell.get(i) == item)
+                    {
+                        cell.remove(i);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    private static int clip(int value, int limit)
+    {
+        if (value < 0)
+        {
+            return 0;
+        }
+        if (value >= limit)
+        {
+            return limit - 1;
+        }
+        return value;
+    }
+}
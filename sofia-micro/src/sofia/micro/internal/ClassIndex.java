@@ -0,0 +1,261 @@
+package sofia.micro.internal;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//-------------------------------------------------------------------------
+/**
+ * A collection of objects that is partitioned by concrete class.  Looking
+ * up all of the objects of a given class (including its subclasses) only
+ * touches the partitions for classes that are assignable to it.  The set
+ * of concrete classes that match a given query class is computed once
+ * and cached, and is kept up to date as new concrete classes are added.
+ *
+ * <p>This class is not thread-safe; callers are responsible for
+ * synchronizing access.</p>
+ *
+ * @param <T> The type of object stored in the index.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public class ClassIndex<T>
+    implements Iterable<T>
+{
+    //~ Fields ................................................................
+
+    private final Map<Class<?>, Set<T>> partitions;
+    private final Map<Class<?>, List<Set<T>>> matches;
+    private int size = 0;
+
+
+    //~ Constructor ...........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new, empty index.
+     */
+    public ClassIndex()
+    {
+        partitions = new java.util.LinkedHashMap<Class<?>, Set<T>>();
+        matches = new java.util.HashMap<Class<?>, List<Set<T>>>();
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Add an object to this index.
+     * @param item The object to add.
+     * @return True if the object was not already present.
+     */
+    public boolean add(T item)
+    {
+        Class<?> cls = item.getClass();
+        Set<T> partition = partitions.get(cls);
+        if (partition == null)
+        {
+            partition = new java.util.LinkedHashSet<T>();
+            partitions.put(cls, partition);
+
+            // Extend any cached queries this new class satisfies
+            for (Map.Entry<Class<?>, List<Set<T>>> match : matches.entrySet())
+            {
+                if (match.getKey().isAssignableFrom(cls))
+                {
+                    match.getValue().add(partition);
+                }
+            }
+        }
+        if (partition.add(item))
+        {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Remove an object from this index.
+     * @param item The object to remove.
+     * @return True if the object was present.
+     */
+    public boolean remove(T item)
+    {
+        Set<T> partition = partitions.get(item.getClass());
+        if (partition != null && partition.remove(item))
+        {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determine whether an object is in this index.
+     * @param item The object to look for.
+     * @return True if the object is present.
+     */
+    public boolean contains(T item)
+    {
+        Set<T> partition = partitions.get(item.getClass());
+        return partition != null && partition.contains(item);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the total number of objects in this index.
+     * @return The number of objects.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Count the objects of a given class (including subclasses).
+     * @param cls The class to count, or null to count all objects.
+     * @return The number of objects of the given class.
+     */
+    public int count(Class<?> cls)
+    {
+        if (cls == null)
+        {
+            return size;
+        }
+        int result = 0;
+        for (Set<T> partition : partitionsFor(cls))
+        {
+            result += partition.size();
+        }
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Add all of the objects of a given class (including subclasses) to
+     * a collection.
+     * @param cls  The class to look for, or null for all objects.
+     * @param into The collection to add the objects to.
+     * @param <S>  The type of object being looked for.
+     */
+    public <S> void collect(Class<S> cls, Collection<? super S> into)
+    {
+        if (cls == null)
+        {
+            for (Set<T> partition : partitions.values())
+            {
+                @SuppressWarnings("unchecked")
+                Collection<S> items = (Collection<S>)partition;
+                into.addAll(items);
+            }
+        }
+        else
+        {
+            for (Set<T> partition : partitionsFor(cls))
+            {
+                @SuppressWarnings("unchecked")
+                Collection<S> items = (Collection<S>)partition;
+                into.addAll(items);
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the concrete classes of the objects that have been added to
+     * this index.
+     * @return The classes, in the order they were first seen.
+     */
+    public Set<Class<?>> classes()
+    {
+        return java.util.Collections.unmodifiableSet(partitions.keySet());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get an iterator over all of the objects in this index.  The index
+     * must not be changed while the iterator is in use.
+     * @return An iterator over all objects.
+     */
+    public Iterator<T> iterator()
+    {
+        final Iterator<Set<T>> sets = partitions.values().iterator();
+        return new Iterator<T>() {
+            private Iterator<T> current =
+                java.util.Collections.<T>emptySet().iterator();
+
+            // ----------------------------------------------------------
+            @Override
+            public boolean hasNext()
+            {
+                while (!current.hasNext() && sets.hasNext())
+                {
+                    current = sets.next().iterator();
+                }
+                return current.hasNext();
+            }
+
+
+            // ----------------------------------------------------------
+            @Override
+            public T next()
+            {
+                if (!hasNext())
+                {
+                    throw new java.util.NoSuchElementException();
+                }
+                return current.next();
+            }
+
+
+            // ----------------------------------------------------------
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Get the partitions holding objects of the given class or any of its
+     * subclasses, computing and caching the answer if necessary.
+     */
+    private List<Set<T>> partitionsFor(Class<?> cls)
+    {
+        List<Set<T>> result = matches.get(cls);
+        if (result == null)
+        {
+            result = new java.util.ArrayList<Set<T>>();
+            for (Map.Entry<Class<?>, Set<T>> partition : partitions.entrySet())
+            {
+                if (cls.isAssignableFrom(partition.getKey()))
+                {
+                    result.add(partition.getValue());
+                }
+            }
+            matches.put(cls, result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,183 @@
+package sofia.micro.internal;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+//-------------------------------------------------------------------------
+/**
+ * Access to the JVM's own one-shot continuations (the ones virtual
+ * threads are built on), which let a program run on the thread that
+ * resumes it and suspend itself at the end of each atomic action without
+ * a thread of its own.  These are found reflectively, because they are
+ * not part of the public Java API: they are only available on Java 21 or
+ * later, and only when the JVM is started with
+ * {@code --add-exports java.base/jdk.internal.vm=ALL-UNNAMED}.  Elsewhere
+ * (including on Android), {@link #isAvailable()} is false.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+/* package */ class ContinuationSupport
+{
+    //~ Fields ................................................................
+
+    private static final Object SCOPE;
+    private static final Constructor<?> NEW_CONTINUATION;
+    private static final Method RUN;
+    private static final Method IS_DONE;
+    private static final Method YIELD;
+    static
+    {
+        Object scope = null;
+        Constructor<?> newContinuation = null;
+        Method run = null;
+        Method isDone = null;
+        Method yield = null;
+        try
+        {
+            Class<?> scopeClass =
+                Class.forName("jdk.internal.vm.ContinuationScope");
+            Class<?> continuationClass =
+                Class.forName("jdk.internal.vm.Continuation");
+            scope = scopeClass.getConstructor(String.class)
+                .newInstance("sofia.micro.Program");
+            newContinuation = continuationClass.getConstructor(
+                scopeClass, Runnable.class);
+            run = continuationClass.getMethod("run");
+            isDone = continuationClass.getMethod("isDone");
+            yield = continuationClass.getMethod("yield", scopeClass);
+        }
+        catch (Throwable e)
+        {
+            // Not there, or not exported to us
+            scope = null;
+        }
+        SCOPE = scope;
+        NEW_CONTINUATION = newContinuation;
+        RUN = run;
+        IS_DONE = isDone;
+        YIELD = yield;
+    }
+
+
+    //~ Constructor ...........................................................
+
+    // ----------------------------------------------------------
+    private ContinuationSupport()
+    {
+        // Only static methods
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Determine whether continuations can be used on this JVM.
+     * @return True if they can.
+     */
+    public static boolean isAvailable()
+    {
+        return SCOPE != null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a continuation that will run the given task.
+     * @param task The task.
+     * @return The continuation, which does not start until it is
+     *         {@link #run(Object) run}.
+     */
+    public static Object create(Runnable task)
+    {
+        try
+        {
+            return NEW_CONTINUATION.newInstance(SCOPE, task);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw rethrow(e);
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Run a continuation on the current thread, until its task calls
+     * {@link #suspend()} or ends.
+     * @param continuation The continuation.
+     */
+    public static void run(Object continuation)
+    {
+        invoke(RUN, continuation);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determine whether a continuation's task has ended.
+     * @param continuation The continuation.
+     * @return True if it has.
+     */
+    public static boolean isDone(Object continuation)
+    {
+        return (Boolean)invoke(IS_DONE, continuation);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Suspend the continuation that is running on the current thread,
+     * returning control to whoever called {@link #run(Object)}.  This
+     * returns once the continuation is run again.
+     * @throws IllegalStateException if the continuation cannot be
+     *         suspended here, such as when a monitor is held.
+     */
+    public static void suspend()
+    {
+        invoke(YIELD, null, SCOPE);
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    private static Object invoke(Method method, Object target, Object... args)
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw rethrow(e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    private static RuntimeException rethrow(InvocationTargetException e)
+    {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException)
+        {
+            throw (RuntimeException)cause;
+        }
+        if (cause instanceof Error)
+        {
+            throw (Error)cause;
+        }
+        return new IllegalStateException(cause);
+    }
+}
@@ -0,0 +1,201 @@
+package sofia.micro.internal;
+
+//-------------------------------------------------------------------------
+/**
+ * Receives notice of what worlds' engines and programs are doing, so it
+ * can be recorded by a tool such as Java Flight Recorder.  This class
+ * itself ignores everything.  On a JVM that has Flight Recorder, and when
+ * the {@code sofia-micro-jfr} classes are on the class path, the instance
+ * returned by {@link #get()} records each notice as a Flight Recorder
+ * event instead, so that engine steps, program handoffs, and exceptions
+ * can be lined up with garbage collection and thread scheduling using
+ * the standard tools.  Elsewhere (such as on Android), the notices cost
+ * no more than a call to an empty method.
+ *
+ * <p>Notices of things that take time come in pairs: a {@code begin}
+ * method returns a token (which may be null), and the matching
+ * {@code end} method is passed that token once the thing is done.</p>
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public class EngineEvents
+{
+    //~ Fields ................................................................
+
+    private static final String RECORDER_CLASS =
+        "sofia.micro.jfr.FlightRecorderEvents";
+
+    private static final EngineEvents instance = load();
+
+
+    //~ Constructor ...........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a receiver that ignores everything.  Only subclasses and
+     * {@link #get()} create receivers.
+     */
+    protected EngineEvents()
+    {
+        // Nothing to do
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Get the receiver in use.
+     * @return The receiver.
+     */
+    public static EngineEvents get()
+    {
+        return instance;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Note that a world is starting a step.
+     * @return A token to pass to {@link #endStep(Object, Object, long, int)}.
+     */
+    public Object beginStep()
+    {
+        return null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Note that a world has finished a step.
+     * @param token      The token from {@link #beginStep()}.
+     * @param world      The world.
+     * @param stepIndex  The number of steps the world had taken before
+     *                   this one.
+     * @param actorCount The number of actors that acted.
+     */
+    public void endStep(
+        Object token, Object world, long stepIndex, int actorCount)
+    {
+        // Ignored
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Note that a program has paused, and is waiting to be resumed.
+     * @return A token to pass to
+     *         {@link #endProgramPause(Object, ProgramThread)}.
+     */
+    public Object beginProgramPause()
+    {
+        return null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Note that a paused program has been resumed (or ended).
+     * @param token   The token from {@link #beginProgramPause()}.
+     * @param program The program.
+     */
+    public void endProgramPause(Object token, ProgramThread program)
+    {
+        // Ignored
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Note that a thread (normally an engine) is resuming a program and
+     * waiting for its next action to finish.
+     * @return A token to pass to
+     *         {@link #endProgramWait(Object, ProgramThread, boolean)}.
+     */
+    public Object beginProgramWait()
+    {
+        return null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Note that a thread has finished waiting for a program's action.
+     * @param token     The token from {@link #beginProgramWait()}.
+     * @param program   The program.
+     * @param completed True if the action finished, or false if the wait
+     *                  timed out.
+     */
+    public void endProgramWait(
+        Object token, ProgramThread program, boolean completed)
+    {
+        // Ignored
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Note that a world is applying the adds and removes made during a
+     * step.
+     * @return A token to pass to
+     *         {@link #endCommit(Object, Object, int, int)}.
+     */
+    public Object beginCommit()
+    {
+        return null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Note that a world has applied the adds and removes made during a
+     * step.
+     * @param token   The token from {@link #beginCommit()}.
+     * @param world   The world.
+     * @param adds    The number of actors that joined the act list.
+     * @param removes The number of actors that left it.
+     */
+    public void endCommit(Object token, Object world, int adds, int removes)
+    {
+        // Ignored
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Note that an exception thrown by an act() method (or a similar
+     * callback) was caught and logged.
+     * @param source The object whose method threw the exception.
+     * @param method The name of the method, such as "act".
+     * @param error  The exception.
+     */
+    public void caughtException(Object source, String method, Throwable error)
+    {
+        // Ignored
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Use the Flight Recorder receiver if it can be loaded here, or else
+     * a receiver that ignores everything.
+     */
+    private static EngineEvents load()
+    {
+        try
+        {
+            return (EngineEvents)Class.forName(RECORDER_CLASS)
+                .getConstructor().newInstance();
+        }
+        catch (Throwable e)
+        {
+            // Either the receiver is not on the class path, or this VM has
+            // no Flight Recorder for it to link against
+            return new EngineEvents();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package sofia.micro.internal;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+//-------------------------------------------------------------------------
+/**
+ * Provides the thread pool that runs the engines of all worlds.  Instead
+ * of each world owning a thread that sleeps between steps, each world's
+ * engine runs as a series of short tasks on this shared pool, one per
+ * step, so any number of worlds can be time-sliced over a few threads.
+ * A world that is stopped has no task scheduled at all, and so holds on
+ * to no thread.
+ *
+ * <p>The pool's threads are daemon threads, so they never keep an
+ * application (or a test run) alive.</p>
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public class EngineScheduler
+{
+    //~ Fields ................................................................
+
+    private static ScheduledExecutorService shared;
+
+
+    //~ Constructor ...........................................................
+
+    // ----------------------------------------------------------
+    private EngineScheduler()
+    {
+        // Not instantiable
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Get the scheduler shared by all worlds, creating it if necessary.
+     * @return The shared scheduler.
+     */
+    public static synchronized ScheduledExecutorService getShared()
+    {
+        if (shared == null)
+        {
+            int threads =
+                Math.max(2, Runtime.getRuntime().availableProcessors());
+            shared = new ScheduledThreadPoolExecutor(threads,
+                new ThreadFactory() {
+                    private int count = 0;
+
+                    // ----------------------------------------------
+                    public synchronized Thread newThread(Runnable r)
+                    {
+                        Thread result =
+                            new Thread(r, "World-engine-" + (++count));
+                        result.setDaemon(true);
+                        return result;
+                    }
+                });
+        }
+        return shared;
+    }
+}
@@ -1,5 +1,8 @@
 package sofia.micro.internal;
 
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import sofia.micro.Program;
 
 //-------------------------------------------------------------------------
@@ -7,20 +10,102 @@ import sofia.micro.Program;
  * A thread for running a "program" associated with a programmable actor or
  * world.
  *
+ * <p>A program thread runs its program on a thread of its own, which is
+ * either a platform thread or, where the JVM supports them (Java 21 and
+ * later), a virtual thread.  Virtual threads do not each need an
+ * operating system thread or a full-size stack, so a world can hold
+ * thousands of programmed actors.  Either way, the program pauses and
+ * resumes in exactly the same way.  Where virtual threads are not
+ * available (such as on Android), a platform thread is used instead.</p>
+ *
+ * <p>Platform threads are pooled: once a program ends, the thread that
+ * carried it is reused for the next program that starts (with the same
+ * stack size).  Carrier threads are daemon threads, so a program that is
+ * never ended does not keep the application from exiting.</p>
+ *
+ * <p>A program can also be run {@link #THREADLESS threadless}, as a
+ * continuation that runs on whichever thread resumes it (normally the
+ * world's engine) and suspends itself at the end of each atomic action,
+ * so no thread handoff is needed at all.  This uses the JVM's own
+ * continuations, which are only available on some JVMs (see
+ * {@link #isThreadlessAvailable()}).  A threadless program that is ended
+ * while it is suspended is simply dropped, so its {@code finally} blocks
+ * do not run, and it cannot suspend while it holds a monitor (that is,
+ * inside a {@code synchronized} block).</p>
+ *
  * @author  Stephen Edwards
  * @author  Last changed by $Author: edwards $
  * @version $Date: 2012/08/21 14:19 $
  */
 public class ProgramThread
-    extends Thread
+    implements Runnable
 {
+    //~ Constants .............................................................
+
+    /** Run the program on a pooled platform thread. */
+    public static final int PLATFORM = 0;
+    /** Run the program on a virtual thread, where available. */
+    public static final int VIRTUAL = 1;
+    /** Run the program as a continuation, with no thread of its own. */
+    public static final int THREADLESS = 2;
+
+
     //~ Fields ................................................................
 
+    private final String name;
+    private final long stackSize;
+    private final RunContext context;
+    private volatile int kind;
+    private volatile Thread thread;  // Only set while the program runs
+    private volatile Object continuation;  // Only used when threadless
+    private final java.util.concurrent.atomic.AtomicBoolean mounted =
+        new java.util.concurrent.atomic.AtomicBoolean();
+    private volatile boolean started = false;
+    private volatile boolean ended = false;
+    private volatile boolean finished = false;
     private java.util.concurrent.Semaphore programGate =
         new java.util.concurrent.Semaphore(0);
     private volatile int depth = -1;
     private Program program;
 
+    // Handoff tracking for resumeProgramAndWait().  Each resume that the
+    // program takes is counted, and once the program pauses again, all of
+    // the resumes it has taken are complete.
+    private final AtomicLong resumesGiven = new AtomicLong();
+    private long resumesTaken = 0;  // Only touched by this thread
+    private volatile long resumesCompleted = 0;
+    private volatile Thread waiter;
+
+    private static final int SPINS = 1000;
+
+    // The program thread whose program is running on the current thread
+    private static final ThreadLocal<ProgramThread> current =
+        new ThreadLocal<ProgramThread>();
+
+    // Thread.ofVirtual() and Thread.Builder.unstarted(), if this JVM has
+    // virtual threads
+    private static final Method OF_VIRTUAL;
+    private static final Method UNSTARTED;
+    static
+    {
+        Method ofVirtual = null;
+        Method unstarted = null;
+        try
+        {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            unstarted = Class.forName("java.lang.Thread$Builder")
+                .getMethod("unstarted", Runnable.class);
+        }
+        catch (Exception e)
+        {
+            // No virtual threads here
+            ofVirtual = null;
+            unstarted = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        UNSTARTED = unstarted;
+    }
+
 
     //~ Constructors ..........................................................
 
@@ -29,11 +114,40 @@ public class ProgramThread
      * Create a new program thread.
      * @param threadName The name of this thread (for debugging).
      * @param program    The program this thread will run.
+     * @param kind       How to run the program: {@link #PLATFORM},
+     *                   {@link #VIRTUAL}, or {@link #THREADLESS}.  If the
+     *                   JVM cannot run it that way, a platform thread is
+     *                   used instead.
+     * @param stackSize  The stack size for a platform thread, in bytes,
+     *                   or zero for the JVM's default.  Other kinds
+     *                   ignore this.
      */
-    public ProgramThread(String threadName, Program program)
+    public ProgramThread(
+        String threadName, Program program, int kind, long stackSize)
     {
-        super(threadName);
+        this.name = threadName;
         this.program = program;
+        if ((kind == VIRTUAL && !isVirtualAvailable())
+            || (kind == THREADLESS && !isThreadlessAvailable()))
+        {
+            kind = PLATFORM;
+        }
+        this.kind = kind;
+        this.stackSize = stackSize;
+        this.context = RunContext.getCurrent();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new program thread that runs its program on a platform
+     * thread.
+     * @param threadName The name of this thread (for debugging).
+     * @param program    The program this thread will run.
+     */
+    public ProgramThread(String threadName, Program program)
+    {
+        this(threadName, program, PLATFORM, 0);
     }
 
 
@@ -44,24 +158,260 @@ public class ProgramThread
      *                   used to determining this thread's name (for
      *                   debugging).
      * @param program    The program this thread will run.
+     * @param kind       How to run the program: {@link #PLATFORM},
+     *                   {@link #VIRTUAL}, or {@link #THREADLESS}.
+     * @param stackSize  The stack size for a platform thread, in bytes,
+     *                   or zero for the JVM's default.
+     */
+    public ProgramThread(
+        Object namedAfter, Program program, int kind, long stackSize)
+    {
+        this("Program[" + namedAfter.getClass().getSimpleName() + "]",
+            program, kind, stackSize);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new program thread that runs its program on a platform
+     * thread.
+     * @param namedAfter The object controlled by this program, which is
+     *                   used to determining this thread's name (for
+     *                   debugging).
+     * @param program    The program this thread will run.
      */
     public ProgramThread(Object namedAfter, Program program)
     {
-        this(
-            "Program[" + namedAfter.getClass().getSimpleName() + "]", program);
+        this(namedAfter, program, PLATFORM, 0);
     }
 
 
     //~ Public Methods ........................................................
 
     // ----------------------------------------------------------
-    @Override
+    /**
+     * Determine whether this JVM can run programs on virtual threads.
+     * @return True if virtual threads are available.
+     */
+    public static boolean isVirtualAvailable()
+    {
+        return OF_VIRTUAL != null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determine whether this JVM can run programs threadless.  This needs
+     * Java 21 or later, started with
+     * {@code --add-exports java.base/jdk.internal.vm=ALL-UNNAMED}.
+     * @return True if threadless programs are available.
+     */
+    public static boolean isThreadlessAvailable()
+    {
+        return ContinuationSupport.isAvailable();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the program thread whose program is running on the current
+     * thread.
+     * @return The current program thread, or null if the current thread
+     *         is not running a program.
+     */
+    public static ProgramThread current()
+    {
+        return current.get();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of pooled platform threads that exist for running
+     * programs, whether they are running one now or waiting to be reused.
+     * @return The number of carrier threads.
+     */
+    public static int getCarrierCount()
+    {
+        return CarrierPool.getCarrierCount();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Start this thread.  Its program does not begin until it is resumed.
+     * @throws IllegalStateException if this thread has already been
+     *         started.
+     */
+    public void start()
+    {
+        synchronized (this)
+        {
+            if (started)
+            {
+                throw new IllegalStateException(
+                    "ProgramThread " + name + " has already been started.");
+            }
+            started = true;
+            if (kind == THREADLESS)
+            {
+                continuation = ContinuationSupport.create(new Runnable() {
+                    public void run()
+                    {
+                        runProgram();
+                        finished = true;
+                        actionCompleted(Long.MAX_VALUE);
+                    }
+                });
+            }
+        }
+        if (kind == THREADLESS)
+        {
+            // Nothing runs until the first resume
+            return;
+        }
+        Thread carrier = (kind == VIRTUAL) ? newVirtualThread(this) : null;
+        if (kind == VIRTUAL && carrier == null)
+        {
+            kind = PLATFORM;
+        }
+        if (carrier != null)
+        {
+            carrier.setName(name);
+            carrier.start();
+        }
+        else
+        {
+            CarrierPool.execute(this, stackSize);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the state of this thread.  A thread is
+     * {@link Thread.State#NEW} until it is started, and
+     * {@link Thread.State#TERMINATED} once its program has ended (even
+     * though the thread that carried it may go on to carry another).  In
+     * between, this is the state of the thread carrying the program, or
+     * {@link Thread.State#WAITING} for a threadless program that is
+     * suspended.
+     * @return The thread's state.
+     */
+    public Thread.State getState()
+    {
+        if (finished)
+        {
+            return Thread.State.TERMINATED;
+        }
+        Thread carrier = thread;
+        if (carrier != null)
+        {
+            return carrier.getState();
+        }
+        if (!started)
+        {
+            return Thread.State.NEW;
+        }
+        return (kind == THREADLESS)
+            ? Thread.State.WAITING
+            : Thread.State.RUNNABLE;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the thread that is running this program.
+     * @return The thread, or null if the program is not running (because
+     *         it has not started yet, or has ended).
+     */
+    public Thread getThread()
+    {
+        return thread;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determine whether this program runs on a virtual thread.
+     * @return True if it does.
+     */
+    public boolean isVirtual()
+    {
+        return kind == VIRTUAL;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determine whether this program runs threadless.
+     * @return True if it does.
+     */
+    public boolean isThreadless()
+    {
+        return kind == THREADLESS;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Run this thread's program.  This is called on the thread that runs
+     * the program, once it is started, and should not be called directly.
+     */
     public void run()
+    {
+        Thread carrier = Thread.currentThread();
+        String carrierName = carrier.getName();
+        synchronized (this)
+        {
+            thread = carrier;
+        }
+        carrier.setName(name);
+        current.set(this);
+        RunContext.enter(context);
+        try
+        {
+            runProgram();
+        }
+        finally
+        {
+            current.remove();
+            RunContext.end();
+            synchronized (this)
+            {
+                // From here on, ending this program must not interrupt
+                // the carrier, which may go on to another program
+                thread = null;
+                finished = true;
+            }
+            Thread.interrupted();
+            carrier.setName(carrierName);
+
+            // Nothing more will run, so anyone waiting can go on
+            actionCompleted(Long.MAX_VALUE);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Run the program itself, on whatever thread (or continuation) this
+     * program thread is using.
+     */
+    private void runProgram()
     {
         try
         {
-            // Immediately park this thread until we are resumed.
-            pauseProgram();
+            if (kind == THREADLESS)
+            {
+                // A continuation only begins when it is first resumed
+                resumesTaken++;
+            }
+            else
+            {
+                // Immediately park this thread until we are resumed.
+                pauseProgram();
+            }
             program.myProgram();
         }
         catch (ProgramTermination e)
@@ -76,6 +426,56 @@ public class ProgramThread
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Run a threadless program on the current thread until it suspends
+     * itself at the end of its next atomic action, or ends.  This must not
+     * be called while holding a monitor, since the JVM will not let the
+     * program suspend itself then.
+     */
+    private void mount()
+    {
+        Object cont = continuation;
+        if (cont == null || !mounted.compareAndSet(false, true))
+        {
+            // Ended, or already running somewhere
+            if (!finished)
+            {
+                resumesGiven.decrementAndGet();
+            }
+            return;
+        }
+        ProgramThread previous = current.get();
+        RunContext previousContext = RunContext.getCurrent();
+        thread = Thread.currentThread();
+        current.set(this);
+        RunContext.enter(context);
+        try
+        {
+            ContinuationSupport.run(cont);
+        }
+        finally
+        {
+            thread = null;
+            current.set(previous);
+            RunContext.enter(previousContext);
+            if (finished)
+            {
+                continuation = null;
+            }
+            mounted.set(false);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Get the program associated with this thread.
@@ -106,9 +506,10 @@ public class ProgramThread
      */
     public static void beginAtomicAction()
     {
-        if (Thread.currentThread() instanceof ProgramThread)
+        ProgramThread self = current.get();
+        if (self != null)
         {
-            ((ProgramThread)Thread.currentThread()).beginMyAtomicAction();
+            self.beginMyAtomicAction();
         }
     }
 
@@ -131,9 +532,10 @@ public class ProgramThread
      */
     public static void endAtomicAction()
     {
-        if (Thread.currentThread() instanceof ProgramThread)
+        ProgramThread self = current.get();
+        if (self != null)
         {
-            ((ProgramThread)Thread.currentThread()).endMyAtomicAction();
+            self.endMyAtomicAction();
         }
     }
 
@@ -145,14 +547,14 @@ public class ProgramThread
      */
     private void pauseProgram()
     {
-        if (currentThread() != this)
+        if (Thread.currentThread() != thread)
         {
             throw new IllegalStateException(
                 "pauseProgram() called from outside this ScriptThread."
-                + "  Caller = " + currentThread());
+                + "  Caller = " + Thread.currentThread());
         }
 
-        if (isInterrupted())
+        if (ended)
         {
             throw new ProgramTermination();
         }
@@ -161,12 +563,33 @@ public class ProgramThread
             if (depth <= 0)
             {
                 depth = -1;
-                programGate.acquire();
+                actionCompleted(resumesTaken);
+                EngineEvents events = EngineEvents.get();
+                Object pause = events.beginProgramPause();
+                try
+                {
+                    if (kind == THREADLESS)
+                    {
+                        ContinuationSupport.suspend();
+                    }
+                    else
+                    {
+                        programGate.acquire();
+                    }
+                }
+                finally
+                {
+                    events.endProgramPause(pause, this);
+                }
+                resumesTaken++;
+                if (ended)
+                {
+                    throw new ProgramTermination();
+                }
             }
         }
         catch (InterruptedException e)
         {
-            interrupt();
             throw new ProgramTermination();
         }
     }
@@ -174,11 +597,89 @@ public class ProgramThread
 
     // ----------------------------------------------------------
     /**
-     * Resume the program that is being executed by this thread.
+     * Resume the program that is being executed by this thread.  A
+     * threadless program carries out its next atomic action on the
+     * calling thread before this returns.
      */
     public void resumeProgram()
     {
-        programGate.release();
+        resumesGiven.incrementAndGet();
+        if (kind == THREADLESS)
+        {
+            mount();
+        }
+        else
+        {
+            programGate.release();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Resume the program that is being executed by this thread, and wait
+     * until it has finished its next atomic action (that is, until it
+     * pauses again) or ended.  The wait spins briefly before parking, so
+     * a short action is handed off and back in a few microseconds.
+     *
+     * @param timeout The longest time to wait, in nanoseconds.
+     * @return True if the action finished, or false if the wait timed out
+     *         (or the calling thread was interrupted), in which case the
+     *         program is left running on its own.
+     */
+    public boolean resumeProgramAndWait(long timeout)
+    {
+        resumeProgram();
+        return awaitActions(timeout);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Wait until the program has finished every action it has been
+     * resumed for so far (or ended).  Like
+     * {@link #resumeProgramAndWait(long)}, the wait spins briefly before
+     * parking.
+     *
+     * @param timeout The longest time to wait, in nanoseconds.
+     * @return True if the actions finished, or false if the wait timed
+     *         out (or the calling thread was interrupted).
+     */
+    public boolean awaitActions(long timeout)
+    {
+        long target = resumesGiven.get();
+        EngineEvents events = EngineEvents.get();
+        Object wait = events.beginProgramWait();
+        boolean completed = false;
+        waiter = Thread.currentThread();
+        try
+        {
+            for (int i = 0; i < SPINS; i++)
+            {
+                if (resumesCompleted >= target)
+                {
+                    completed = true;
+                    return true;
+                }
+            }
+            long deadline = System.nanoTime() + timeout;
+            while (resumesCompleted < target)
+            {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted())
+                {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            completed = true;
+            return true;
+        }
+        finally
+        {
+            waiter = null;
+            events.endProgramWait(wait, this, completed);
+        }
     }
 
 
@@ -188,14 +689,84 @@ public class ProgramThread
      */
     public void endProgram()
     {
-        this.interrupt();
-        if (currentThread() == this)
+        releaseProgram();
+        if (Thread.currentThread() == thread)
         {
             throw new ProgramTermination();
         }
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Terminate the program that is being executed by this thread, without
+     * interrupting the caller even if it is this thread.  The program ends
+     * the next time it pauses (or right away, if it is paused now), and
+     * its carrier thread is freed for reuse.
+     */
+    public void releaseProgram()
+    {
+        ended = true;
+        if (kind == THREADLESS)
+        {
+            if (!mounted.get())
+            {
+                // Suspended, so just drop it
+                continuation = null;
+                finished = true;
+                actionCompleted(Long.MAX_VALUE);
+            }
+            return;
+        }
+        synchronized (this)
+        {
+            Thread carrier = thread;
+            if (carrier != null && carrier != Thread.currentThread())
+            {
+                carrier.interrupt();
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create an unstarted virtual thread, or return null if this JVM
+     * cannot.
+     */
+    private static Thread newVirtualThread(Runnable task)
+    {
+        if (OF_VIRTUAL == null)
+        {
+            return null;
+        }
+        try
+        {
+            return (Thread)UNSTARTED.invoke(OF_VIRTUAL.invoke(null), task);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Record that the program has finished the given number of resumes,
+     * and wake up any thread waiting for that.
+     */
+    private void actionCompleted(long resumes)
+    {
+        resumesCompleted = resumes;
+        Thread toWake = waiter;
+        if (toWake != null)
+        {
+            LockSupport.unpark(toWake);
+        }
+    }
+
+
     // ----------------------------------------------------------
     private static class ProgramTermination
         extends RuntimeException
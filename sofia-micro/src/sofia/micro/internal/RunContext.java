@@ -0,0 +1,160 @@
+package sofia.micro.internal;
+
+import java.lang.ref.WeakReference;
+import sofia.micro.World;
+
+//-------------------------------------------------------------------------
+/**
+ * Holds the state that would otherwise be static and shared by every
+ * world in the process, such as the most recently created world and the
+ * world that the Greenfoot-style static methods control.  Normally there
+ * is just one, global context.  A thread can {@link #begin()} a context of
+ * its own so that the worlds it creates (and the program threads those
+ * worlds start) do not see or disturb the state of worlds running on
+ * other threads, which is what allows many worlds to be run side by side
+ * in batch.
+ *
+ * <p>A context is inherited by any thread started while it is in effect,
+ * so the program threads and worker threads that a world creates share
+ * its context.</p>
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public class RunContext
+{
+    //~ Fields ................................................................
+
+    private WeakReference<World> mostRecentlyCreated =
+        new WeakReference<World>(null);
+    private World greenfootWorld;
+
+    private static final RunContext global = new RunContext();
+    private static final InheritableThreadLocal<RunContext> current =
+        new InheritableThreadLocal<RunContext>();
+
+
+    //~ Constructor ...........................................................
+
+    // ----------------------------------------------------------
+    private RunContext()
+    {
+        // Only created through begin()
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Get the context in effect for the current thread.
+     * @return The current thread's context, or the global context if the
+     *         thread is not running in a context of its own.
+     */
+    public static RunContext getCurrent()
+    {
+        RunContext result = current.get();
+        return (result == null) ? global : result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Start a new, empty context on the current thread.  Every call must
+     * be matched by a call to {@link #end()} on the same thread.
+     * @return The new context.
+     */
+    public static RunContext begin()
+    {
+        RunContext result = new RunContext();
+        current.set(result);
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Continue an existing context on the current thread, such as one
+     * captured with {@link #getCurrent()} on another thread.  Every call
+     * must be matched by a call to {@link #end()} on the same thread.
+     * @param context The context to use.
+     */
+    public static void enter(RunContext context)
+    {
+        current.set(context);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Leave the current thread's context, so that the thread goes back to
+     * using the global context.
+     */
+    public static void end()
+    {
+        current.remove();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the most recently created world in this context.
+     * @return The most recently created world, or null if there is none
+     *         (or it has been disposed of).
+     */
+    public synchronized World getMostRecentlyCreated()
+    {
+        return mostRecentlyCreated.get();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Record the most recently created world in this context.  The
+     * context only keeps a weak reference to it.
+     * @param world The world that was just created.
+     */
+    public synchronized void setMostRecentlyCreated(World world)
+    {
+        mostRecentlyCreated = new WeakReference<World>(world);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Forget the most recently created world, if it is the given one.
+     * @param world The world being disposed of.
+     */
+    public synchronized void forgetMostRecentlyCreated(World world)
+    {
+        if (mostRecentlyCreated.get() == world)
+        {
+            mostRecentlyCreated.clear();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the world controlled by the Greenfoot-style static methods in
+     * this context.
+     * @return The Greenfoot world, or null if none has been set.
+     */
+    public synchronized World getGreenfootWorld()
+    {
+        return greenfootWorld;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Set the world controlled by the Greenfoot-style static methods in
+     * this context.
+     * @param world The world to control.
+     */
+    public synchronized void setGreenfootWorld(World world)
+    {
+        greenfootWorld = world;
+    }
+}
@@ -0,0 +1,259 @@
+package sofia.micro.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+//-------------------------------------------------------------------------
+/**
+ * A fixed-size ring buffer of recent engine events, for diagnosing what a
+ * world's engine was doing just before something went wrong.  Each event
+ * is a code (one of the constants defined here) plus two numbers, stored
+ * with the time it happened in a preallocated array of longs, so
+ * recording an event allocates nothing and does no formatting.  Once the
+ * buffer is full, each new event overwrites the oldest one.  Events are
+ * only turned into text when the buffer is dumped.
+ *
+ * <p>A new buffer is disabled: it ignores events, and does not allocate
+ * its array until it is first {@link #setEnabled(boolean) enabled}, so an
+ * unused buffer costs next to nothing.</p>
+ *
+ * <p>Events can be recorded from any thread.  If events are recorded
+ * while the buffer is being dumped, the dump may include an event that
+ * is only partly written; such events are skipped when they can be
+ * detected.</p>
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public class TraceBuffer
+{
+    //~ Constants .............................................................
+
+    /** The speed was set; the argument is the new speed. */
+    public static final int SET_SPEED = 0;
+    /** A start was requested. */
+    public static final int START = 1;
+    /** A single step was requested. */
+    public static final int ONE_STEP = 2;
+    /** A stop was requested. */
+    public static final int STOP = 3;
+    /** A temporary pause was requested. */
+    public static final int PAUSE = 4;
+    /** A resume after a temporary pause was requested. */
+    public static final int RESUME = 5;
+    /** The engine was disposed of. */
+    public static final int DISPOSE = 6;
+    /** The engine stopped running. */
+    public static final int STOPPING = 7;
+    /** The engine paused temporarily. */
+    public static final int PAUSING = 8;
+    /** The engine went idle, waiting for a request. */
+    public static final int IDLE = 9;
+    /** A step began; the argument is the step index. */
+    public static final int STEP_BEGIN = 10;
+    /** A step ended; the arguments are the step index and actor count. */
+    public static final int STEP_END = 11;
+    /** The next tick was scheduled; the argument is the delay in ns. */
+    public static final int SCHEDULE = 12;
+    /** A single step finished, so the engine will stop. */
+    public static final int ONE_STEP_DONE = 13;
+    /** started() is being called. */
+    public static final int NOTIFY_START = 14;
+    /** stopped() is being called. */
+    public static final int NOTIFY_STOP = 15;
+    /** An exception from act() was caught; the argument is the step index. */
+    public static final int ACT_EXCEPTION = 16;
+
+    private static final String[] NAMES = {
+        "setSpeed", "start", "oneStep", "stop", "pause", "resume",
+        "dispose", "stopping", "pausing", "idle", "stepBegin", "stepEnd",
+        "schedule", "oneStepDone", "notifyStart", "notifyStop",
+        "actException"
+    };
+
+    // Each event takes this many longs: sequence, time, code, arg1, arg2
+    private static final int WIDTH = 5;
+
+
+    //~ Fields ................................................................
+
+    private volatile long[] events;  // Null while disabled
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+
+    //~ Constructor ...........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new trace buffer.
+     * @param capacity The number of events to keep, which is rounded up
+     *                 to a power of two.
+     */
+    public TraceBuffer(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Turn recording on or off.  Turning it on allocates the buffer's
+     * array, if it is not already on; turning it off discards the events
+     * recorded so far and frees the array.
+     * @param enabled True to record events.
+     */
+    public synchronized void setEnabled(boolean enabled)
+    {
+        if (!enabled)
+        {
+            events = null;
+        }
+        else if (events == null)
+        {
+            events = new long[(mask + 1) * WIDTH];
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determine whether events are being recorded.
+     * @return True if they are.
+     */
+    public boolean isEnabled()
+    {
+        return events != null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Record an event with no arguments.
+     * @param code The event code.
+     */
+    public void record(int code)
+    {
+        record(code, 0, 0);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Record an event with one argument.
+     * @param code The event code.
+     * @param arg  The argument.
+     */
+    public void record(int code, long arg)
+    {
+        record(code, arg, 0);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Record an event with two arguments.
+     * @param code The event code.
+     * @param arg1 The first argument.
+     * @param arg2 The second argument.
+     */
+    public void record(int code, long arg1, long arg2)
+    {
+        long[] events = this.events;
+        if (events == null)
+        {
+            return;
+        }
+        long sequence = next.getAndIncrement();
+        int base = (int)(sequence & mask) * WIDTH;
+        events[base + 1] = System.nanoTime();
+        events[base + 2] = code;
+        events[base + 3] = arg1;
+        events[base + 4] = arg2;
+        // Written last, so a reader can tell whether the slot is complete
+        events[base] = sequence + 1;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of events recorded so far, including any that have
+     * since been overwritten.
+     * @return The number of events recorded.
+     */
+    public long getCount()
+    {
+        return next.get();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Write the events in this buffer out, oldest first, one per line.
+     * Each line gives the event's sequence number, its time in
+     * microseconds relative to the newest event, its name, and its
+     * arguments.  Nothing is written if the buffer is disabled.
+     * @param out Where to write the events.
+     * @throws java.io.IOException if the events cannot be written.
+     */
+    public void dump(Appendable out)
+        throws java.io.IOException
+    {
+        long[] events = this.events;
+        if (events == null)
+        {
+            return;
+        }
+        long end = next.get();
+        long start = Math.max(0, end - (mask + 1));
+        long newest = 0;
+        if (end > 0)
+        {
+            newest = events[(int)((end - 1) & mask) * WIDTH + 1];
+        }
+        for (long sequence = start; sequence < end; sequence++)
+        {
+            int base = (int)(sequence & mask) * WIDTH;
+            if (events[base] != sequence + 1)
+            {
+                // Overwritten or still being written
+                continue;
+            }
+            int code = (int)events[base + 2];
+            out.append(Long.toString(sequence)).append(' ')
+                .append(Long.toString((events[base + 1] - newest) / 1000))
+                .append("us ")
+                .append((code >= 0 && code < NAMES.length)
+                    ? NAMES[code]
+                    : ("event" + code))
+                .append(' ').append(Long.toString(events[base + 3]))
+                .append(' ').append(Long.toString(events[base + 4]))
+                .append('\n');
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the events in this buffer as text, as written by
+     * {@link #dump(Appendable)}.
+     * @return The events, oldest first, one per line.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        try
+        {
+            dump(result);
+        }
+        catch (java.io.IOException e)
+        {
+            // Cannot happen with a StringBuilder
+        }
+        return result.toString();
+    }
+}
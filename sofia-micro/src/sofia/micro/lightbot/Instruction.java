@@ -0,0 +1,36 @@
+package sofia.micro.lightbot;
+
+//-------------------------------------------------------------------------
+/**
+ * Represents the instruction cards a Light-Bot can be programmed with, for
+ * use in an {@link InstructionProgram}.  Each instruction is either an
+ * action, which matches one of the {@link LightBot} methods, or a call to
+ * one of the Light-Bot's two procedures.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public enum Instruction
+{
+    /** Move forward one space (see {@link LightBot#move()}). */
+    MOVE,
+
+    /** Jump forward one space (see {@link LightBot#jump()}). */
+    JUMP,
+
+    /** Turn to the left (see {@link LightBot#turnLeft()}). */
+    TURN_LEFT,
+
+    /** Turn to the right (see {@link LightBot#turnRight()}). */
+    TURN_RIGHT,
+
+    /** Turn on the light here (see {@link LightBot#turnLightOn()}). */
+    LIGHT,
+
+    /** Call the program's first procedure. */
+    F1,
+
+    /** Call the program's second procedure. */
+    F2
+}
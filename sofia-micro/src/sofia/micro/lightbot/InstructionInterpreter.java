@@ -0,0 +1,314 @@
+package sofia.micro.lightbot;
+
+//-------------------------------------------------------------------------
+/**
+ * Runs an {@link InstructionProgram} on a {@link LightBot}, one action at
+ * a time, without a program thread.  Each call to {@link #step(LightBot)}
+ * carries out the program's next action (making any procedure calls and
+ * returns that lead up to it), so a Light-Bot that is given a program
+ * with {@link LightBot#setInstructions(InstructionProgram)} takes one action
+ * each time it acts, right on the world's engine thread.  A whole program
+ * can also be run at once with {@link #run(LightBot)}, which is fast
+ * enough to try out thousands of candidate programs a second (for
+ * example, when grading).
+ *
+ * <p>To keep a program that never ends from running forever, the
+ * interpreter stops it with an error status once it has gone more than a
+ * given number of procedure calls deep, or carried out a given number of
+ * instructions (procedure calls included).  A call that is the last
+ * instruction of a procedure replaces that procedure's call rather than
+ * nesting inside it, so a procedure that ends by calling itself repeats
+ * until it reaches the instruction limit, as a loop would.</p>
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public class InstructionInterpreter
+{
+    //~ Constants .............................................................
+
+    /** The default limit on nested procedure calls. */
+    public static final int DEFAULT_MAX_CALL_DEPTH = 100;
+
+    /** The default limit on the number of instructions carried out. */
+    public static final int DEFAULT_MAX_INSTRUCTIONS = 10000;
+
+    // ----------------------------------------------------------
+    /**
+     * Represents where an interpreter is in running its program.
+     */
+    public static enum Status
+    {
+        /** The program has more to do. */
+        RUNNING,
+
+        /** The program ran to its end. */
+        FINISHED,
+
+        /** The program was stopped for nesting calls too deeply. */
+        CALL_DEPTH_EXCEEDED,
+
+        /** The program was stopped for carrying out too many
+         * instructions.
+         */
+        INSTRUCTION_LIMIT_EXCEEDED
+    }
+
+
+    //~ Fields ................................................................
+
+    private final InstructionProgram program;
+    private final int maxCallDepth;
+    private final int maxInstructions;
+
+    // The call stack: the procedure and next instruction in each call,
+    // with the main program at the bottom
+    private final int[] procedures;
+    private final int[] counters;
+    private int depth;
+
+    private int instructionCount;
+    private int actionCount;
+    private Status status;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new interpreter, with the default limits.
+     * @param program The program to run.
+     */
+    public InstructionInterpreter(InstructionProgram program)
+    {
+        this(program, DEFAULT_MAX_CALL_DEPTH, DEFAULT_MAX_INSTRUCTIONS);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new interpreter.
+     * @param program         The program to run.
+     * @param maxCallDepth    The most procedure calls that can be in
+     *                        progress at once (not counting the main
+     *                        program).
+     * @param maxInstructions The most instructions the program can carry
+     *                        out, including procedure calls.
+     */
+    public InstructionInterpreter(
+        InstructionProgram program, int maxCallDepth, int maxInstructions)
+    {
+        if (program == null)
+        {
+            throw new IllegalArgumentException("The program cannot be null.");
+        }
+        if (maxCallDepth < 0 || maxInstructions < 0)
+        {
+            throw new IllegalArgumentException(
+                "The limits cannot be negative.");
+        }
+        this.program = program;
+        this.maxCallDepth = maxCallDepth;
+        this.maxInstructions = maxInstructions;
+        procedures = new int[maxCallDepth + 1];
+        counters = new int[maxCallDepth + 1];
+        reset();
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Start the program over from the beginning.
+     */
+    public void reset()
+    {
+        procedures[0] = InstructionProgram.MAIN;
+        counters[0] = 0;
+        depth = 1;
+        instructionCount = 0;
+        actionCount = 0;
+        status = Status.RUNNING;
+        unwind();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Carry out the program's next action on a Light-Bot.  This does
+     * nothing if the program is no longer running.
+     * @param bot The Light-Bot to act on.
+     * @return True if the program is still running afterward.
+     */
+    public boolean step(LightBot bot)
+    {
+        while (status == Status.RUNNING)
+        {
+            if (instructionCount >= maxInstructions)
+            {
+                status = Status.INSTRUCTION_LIMIT_EXCEEDED;
+                break;
+            }
+            int top = depth - 1;
+            Instruction instruction =
+                program.procedure(procedures[top])[counters[top]++];
+            instructionCount++;
+
+            switch (instruction)
+            {
+                case F1:
+                    call(1);
+                    continue;
+                case F2:
+                    call(2);
+                    continue;
+                case MOVE:
+                    bot.move();
+                    break;
+                case JUMP:
+                    bot.jump();
+                    break;
+                case TURN_LEFT:
+                    bot.turnLeft();
+                    break;
+                case TURN_RIGHT:
+                    bot.turnRight();
+                    break;
+                case LIGHT:
+                    bot.turnLightOn();
+                    break;
+            }
+            actionCount++;
+            unwind();
+            break;
+        }
+        return status == Status.RUNNING;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Run the rest of the program on a Light-Bot, until it finishes or
+     * reaches one of its limits.
+     * @param bot The Light-Bot to act on.
+     * @return How the program ended.
+     */
+    public Status run(LightBot bot)
+    {
+        while (step(bot))
+        {
+            // Keep going
+        }
+        return status;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the program this interpreter runs.
+     * @return The program.
+     */
+    public InstructionProgram getProgram()
+    {
+        return program;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get where this interpreter is in running its program.
+     * @return The status.
+     */
+    public Status getStatus()
+    {
+        return status;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determine whether the program has more to do.
+     * @return True if the program is still running.
+     */
+    public boolean isRunning()
+    {
+        return status == Status.RUNNING;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of instructions carried out so far, including
+     * procedure calls.
+     * @return The number of instructions.
+     */
+    public int getInstructionCount()
+    {
+        return instructionCount;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the number of actions carried out so far (that is, instructions
+     * other than procedure calls).
+     * @return The number of actions.
+     */
+    public int getActionCount()
+    {
+        return actionCount;
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Call a procedure.  If the call was the last instruction in the
+     * current procedure, the call replaces it.
+     */
+    private void call(int procedure)
+    {
+        int top = depth - 1;
+        if (counters[top] >= program.procedure(procedures[top]).length)
+        {
+            // A tail call
+            procedures[top] = procedure;
+            counters[top] = 0;
+        }
+        else if (depth > maxCallDepth)
+        {
+            status = Status.CALL_DEPTH_EXCEEDED;
+            return;
+        }
+        else
+        {
+            procedures[depth] = procedure;
+            counters[depth] = 0;
+            depth++;
+        }
+        unwind();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Return from every call that has no instructions left, and note when
+     * the main program has none left either.
+     */
+    private void unwind()
+    {
+        while (depth > 0
+            && counters[depth - 1]
+                >= program.procedure(procedures[depth - 1]).length)
+        {
+            depth--;
+        }
+        if (depth == 0)
+        {
+            status = Status.FINISHED;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package sofia.micro.lightbot;
+
+//-------------------------------------------------------------------------
+/**
+ * Represents a Light-Bot program written the way it is in the original
+ * game: as a list of {@link Instruction} cards for the main program,
+ * plus a list for each of the two procedures, {@link Instruction#F1} and
+ * {@link Instruction#F2}.  Procedures can call each other, or
+ * themselves.  A program is run by an {@link InstructionInterpreter}, and
+ * since it never changes once it is created, the same program can be run
+ * by any number of interpreters.
+ *
+ * @author  agent
+ * @author  Last changed by $Author$
+ * @version $Date$
+ */
+public class InstructionProgram
+{
+    //~ Fields ................................................................
+
+    /** The index of the main program among the procedures. */
+    /* package */ static final int MAIN = 0;
+
+    // The main program, f1, and f2, in that order
+    private final Instruction[][] procedures;
+
+    private static final Instruction[] NONE = new Instruction[0];
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new program.
+     * @param main The instructions for the main program.
+     * @param f1   The instructions for the first procedure, or null if it
+     *             is empty.
+     * @param f2   The instructions for the second procedure, or null if it
+     *             is empty.
+     * @throws IllegalArgumentException if any of the instructions is
+     *         null.
+     */
+    public InstructionProgram(
+        Instruction[] main, Instruction[] f1, Instruction[] f2)
+    {
+        procedures = new Instruction[][] {
+            copyOf(main, "main"), copyOf(f1, "f1"), copyOf(f2, "f2")
+        };
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new program with no procedures.
+     * @param main The instructions for the main program.
+     */
+    public InstructionProgram(Instruction... main)
+    {
+        this(main, null, null);
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Get the instructions for the main program.
+     * @return A copy of the main program's instructions.
+     */
+    public Instruction[] getMain()
+    {
+        return procedures[MAIN].clone();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the instructions for the first procedure.
+     * @return A copy of f1's instructions.
+     */
+    public Instruction[] getF1()
+    {
+        return procedures[1].clone();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the instructions for the second procedure.
+     * @return A copy of f2's instructions.
+     */
+    public Instruction[] getF2()
+    {
+        return procedures[2].clone();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the total number of instructions in this program, including its
+     * procedures (which is how the original game scores a solution).
+     * @return The number of instructions.
+     */
+    public int size()
+    {
+        int size = 0;
+        for (Instruction[] procedure : procedures)
+        {
+            size += procedure.length;
+        }
+        return size;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Produce a readable version of this program.
+     * @return The program's instructions, one procedure per line.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        String[] names = { "main", "f1", "f2" };
+        for (int i = 0; i < procedures.length; i++)
+        {
+            if (i > 0)
+            {
+                result.append('\n');
+            }
+            result.append(names[i]).append(':');
+            for (Instruction instruction : procedures[i])
+            {
+                result.append(' ').append(instruction);
+            }
+        }
+        return result.toString();
+    }
+
+
+    //~ Internal Methods ......................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Get one of this program's procedures, without copying it, for the
+     * interpreter's use.
+     * @param index {@link #MAIN}, 1 for f1, or 2 for f2.
+     * @return The procedure's instructions, which must not be changed.
+     */
+    /* package */ Instruction[] procedure(int index)
+    {
+        return procedures[index];
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    private static Instruction[] copyOf(Instruction[] procedure, String name)
+    {
+        if (procedure == null || procedure.length == 0)
+        {
+            return NONE;
+        }
+        Instruction[] result = procedure.clone();
+        for (Instruction instruction : result)
+        {
+            if (instruction == null)
+            {
+                throw new IllegalArgumentException(
+                    "The " + name + " procedure contains a null instruction.");
+            }
+        }
+        return result;
+    }
+}
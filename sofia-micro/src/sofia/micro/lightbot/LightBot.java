@@ -2,13 +2,16 @@ package sofia.micro.lightbot;
 
 import android.graphics.Point;
 import sofia.graphics.Image;
+import sofia.micro.Program;
 import sofia.micro.ProgrammableActor;
 import sofia.micro.World;
 import sofia.micro.internal.ProgramThread;
 
 //-------------------------------------------------------------------------
 /**
- * Represents a Light-Bot.
+ * Represents a Light-Bot.  A Light-Bot can be programmed in Java, like
+ * any other programmable actor, or with a list of instruction cards as in
+ * the original game (see {@link #setInstructions(InstructionProgram)}).
  *
  * @author  Stephen Edwards
  * @author  Last changed by $Author: edwards $
@@ -43,6 +46,8 @@ public class LightBot
     private final Image imgLeft;
     private final Image imgRight;
 
+    private InstructionInterpreter interpreter;
+
 
     //~ Constructors ..........................................................
 
@@ -287,6 +292,51 @@ public class LightBot
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Program this Light-Bot with a list of instruction cards, rather
+     * than Java code.  The instructions are carried out by an
+     * {@link InstructionInterpreter}, one action each time this Light-Bot
+     * acts, on the world's own thread, so no program thread is needed.
+     * This replaces any other program this Light-Bot has.  A program
+     * value of null removes the instruction program.
+     *
+     * @param program The instructions to carry out.
+     */
+    public void setInstructions(InstructionProgram program)
+    {
+        stopProgram();
+        interpreter = (program == null)
+            ? null
+            : new InstructionInterpreter(program);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * {@inheritDoc}  This also removes any instruction program.
+     */
+    @Override
+    public void setProgram(Program program)
+    {
+        interpreter = null;
+        super.setProgram(program);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the interpreter running this Light-Bot's instruction program,
+     * which tells how far the program has gotten.
+     * @return The interpreter, or null if this Light-Bot does not have an
+     *         instruction program.
+     */
+    public InstructionInterpreter getInterpreter()
+    {
+        return interpreter;
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Determine if the cell immediately in front of the robot is at the
@@ -310,6 +360,41 @@ public class LightBot
     }
 
 
+    //~ Protected Methods .....................................................
+
+    // ----------------------------------------------------------
+    /**
+     * {@inheritDoc}  If this Light-Bot has an instruction program, this
+     * carries out its next action instead.
+     */
+    @Override
+    protected void programStep()
+    {
+        InstructionInterpreter current = interpreter;
+        if (current != null)
+        {
+            current.step(this);
+        }
+        else
+        {
+            super.programStep();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * {@inheritDoc}  This includes an instruction program.
+     */
+    @Override
+    protected boolean isProgramRunning()
+    {
+        InstructionInterpreter current = interpreter;
+        return (current != null && current.isRunning())
+            || super.isProgramRunning();
+    }
+
+
     //~ Private Methods .......................................................
 
     // ----------------------------------------------------------